@@ -0,0 +1,180 @@
+package bench;
+
+import entry.LatencyRecorder;
+import io.IOUtils;
+import io.PNGCompression;
+import io.PreferenceHelper;
+import io.Recognition;
+import io.UploadMode;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * bench.LatencyBenchmark.java
+ * End-to-end latency benchmark against bench.MockMathpixServer.
+ * Drives Recognition, OCRRequestHelper and the result formatters at a fixed concurrency,
+ * and reports latency percentiles, throughput and bytes on the wire.
+ * Preferences are read from and written to a separate benchmark node, the user's config is left untouched.
+ * <p>
+ * Options: --requests n, --concurrency n, --latency distribution, --throttle rate, --errors rate,
+ * --size widthxheight, --mode json|multipart, --compression fast|default|small, --responses file.jsonl
+ */
+public class LatencyBenchmark {
+
+    // preferences node of the benchmark runs
+    private static final String CONFIG_NODE_PATH = "I2L_BENCHMARK_CONFIG";
+
+    public static void main(String[] args) throws Exception {
+
+        // before the first use of PreferenceHelper, the constant is inlined and does not load the class
+        if (System.getProperty(PreferenceHelper.CONFIG_NODE_PROPERTY) == null) {
+            System.setProperty(PreferenceHelper.CONFIG_NODE_PROPERTY, CONFIG_NODE_PATH);
+        }
+
+        var options = parseOptions(args);
+
+        var requestCount = Integer.parseInt(options.getOrDefault("requests", "200"));
+        var concurrency = Integer.parseInt(options.getOrDefault("concurrency", "4"));
+        var size = options.getOrDefault("size", "1200x300").split("x");
+        var uploadMode = UploadMode.valueOf(options.getOrDefault("mode", "json").toUpperCase());
+        var compression = PNGCompression.valueOf(options.getOrDefault("compression", "default").toUpperCase());
+
+        var server = new MockMathpixServer(0);
+        server.setLatencyDistribution(MockMathpixServer.LatencyDistribution.parse(options.getOrDefault("latency", "lognormal:300:0.3")));
+        server.setThrottleRate(Double.parseDouble(options.getOrDefault("throttle", "0")));
+        server.setServerErrorRate(Double.parseDouble(options.getOrDefault("errors", "0")));
+        if (options.containsKey("responses")) {
+            server.loadResponses(Path.of(options.get("responses")));
+        }
+        server.start();
+
+        // target the stand-in, without proxy, with placeholder credentials in the benchmark node
+        System.setProperty(IOUtils.API_URL_PROPERTY, server.getUrl());
+        PreferenceHelper.setAppId("benchmark");
+        PreferenceHelper.setAppKey("benchmark");
+        PreferenceHelper.setProxyEnableOption(false);
+
+        try {
+            var image = createFormulaImage(Integer.parseInt(size[0]), Integer.parseInt(size[1]));
+            run(server, image, uploadMode, compression, requestCount, concurrency, options.getOrDefault("latency", "lognormal:300:0.3"));
+        } finally {
+            server.stop();
+        }
+
+        System.exit(0);
+
+    }
+
+    private static void run(MockMathpixServer server, BufferedImage image, UploadMode uploadMode, PNGCompression compression,
+                            int requestCount, int concurrency, String latency) throws Exception {
+
+        var latencyRecorder = new LatencyRecorder();
+        var errorCount = new AtomicInteger();
+
+        var executor = Executors.newFixedThreadPool(concurrency);
+        // one Recognition per worker, the instance holds the image
+        var recognitions = ThreadLocal.withInitial(() -> {
+            var recognition = new Recognition();
+            recognition.setUploadMode(uploadMode);
+            recognition.setCompression(compression);
+            recognition.setSrcParameters(image);
+            return recognition;
+        });
+
+        // warm up connections and class loading
+        var warmUpFutures = new ArrayList<Future<?>>();
+        for (int i = 0; i < concurrency; i++) {
+            warmUpFutures.add(executor.submit(() -> recognitions.get().call()));
+        }
+        for (Future<?> future : warmUpFutures) {
+            future.get();
+        }
+
+        var receivedBytes = server.getReceivedBytes();
+        var sentBytes = server.getSentBytes();
+        var serverRequestCount = server.getRequestCount();
+
+        var startTime = System.nanoTime();
+
+        var futures = new ArrayList<Future<?>>(requestCount);
+        for (int i = 0; i < requestCount; i++) {
+            futures.add(executor.submit(() -> {
+                var requestStartTime = System.nanoTime();
+                var response = recognitions.get().call();
+                if (response == null || response.getError() != null) {
+                    errorCount.incrementAndGet();
+                } else {
+                    IOUtils.resultFormatter(response.getSegmentIndex());
+                }
+                latencyRecorder.record(System.nanoTime() - requestStartTime);
+                return null;
+            }));
+        }
+
+        for (Future<?> future : futures) {
+            future.get();
+        }
+
+        var elapsedSeconds = (System.nanoTime() - startTime) / 1e9;
+
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+
+        var wireRequestCount = server.getRequestCount() - serverRequestCount;
+
+        System.out.printf("Image %dx%d, %s upload, %s compression, concurrency %d, server latency %s%n",
+                image.getWidth(), image.getHeight(), uploadMode, compression, concurrency, latency);
+        System.out.printf("%d requests, %d errors (%d throttled, %d server errors), %.1f s, %.2f requests/s%n",
+                requestCount, errorCount.get(), server.getThrottledCount(), server.getServerErrorCount(),
+                elapsedSeconds, requestCount / elapsedSeconds);
+        System.out.println("Latency: " + latencyRecorder.getSummary());
+        System.out.printf("Bytes on the wire: %d sent (%d per request), %d received%n",
+                server.getReceivedBytes() - receivedBytes, (server.getReceivedBytes() - receivedBytes) / Math.max(1, wireRequestCount),
+                server.getSentBytes() - sentBytes);
+
+    }
+
+    /**
+     * @return a synthetic black-on-white formula screenshot.
+     */
+    static BufferedImage createFormulaImage(int width, int height) {
+
+        var image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        var graphics2D = image.createGraphics();
+
+        graphics2D.setColor(Color.WHITE);
+        graphics2D.fillRect(0, 0, width, height);
+        graphics2D.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        graphics2D.setColor(Color.BLACK);
+        graphics2D.setFont(new Font(Font.SERIF, Font.ITALIC, Math.max(12, height / 4)));
+        graphics2D.drawString("f(x) = a0 + (a1 cos x + b1 sin x) + (a2 cos 2x + b2 sin 2x)", width / 20, height / 2);
+        graphics2D.dispose();
+
+        return image;
+
+    }
+
+    /**
+     * @return "--name value" pairs.
+     */
+    private static Map<String, String> parseOptions(String[] args) {
+        var options = new HashMap<String, String>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            options.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+        }
+        return options;
+    }
+
+}
@@ -0,0 +1,306 @@
+package bench;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * bench.MockMathpixServer.java
+ * Local stand-in for the Mathpix /v3/text endpoint.
+ * Replies with canned responses after a scripted latency, and injects 429 and 5xx errors at the configured rates.
+ * Point the app at it with -Di2l.api.url=http://localhost:port/v3/text.
+ */
+public class MockMathpixServer {
+
+    private static final String[] DEFAULT_RESPONSES = {
+            "{\"text\":\"\\\\( x^{2}+y^{2}=z^{2} \\\\)\",\"confidence\":0.98,\"data\":[" +
+                    "{\"type\":\"mathml\",\"value\":\"<math><msup><mi>x</mi><mn>2</mn></msup><mo>+</mo>" +
+                    "<msup><mi>y</mi><mn>2</mn></msup><mo>=</mo><msup><mi>z</mi><mn>2</mn></msup></math>\"}]}",
+            "{\"text\":\"The integral \\\\( \\\\int_{0}^{1} f(x) d x \\\\) converges when \\\\( f \\\\) is bounded.\"," +
+                    "\"confidence\":0.87,\"data\":[]}",
+            "{\"text\":\"\\\\( \\\\left[\\\\begin{array}{ll} a & b \\\\\\\\ c & d \\\\end{array}\\\\right] \\\\)\"," +
+                    "\"confidence\":0.93,\"data\":[{\"type\":\"tsv\",\"value\":\"a\\tb\\nc\\td\"}," +
+                    "{\"type\":\"mathml\",\"value\":\"<math><mrow><mo>[</mo><mtable><mtr><mtd><mi>a</mi></mtd>" +
+                    "<mtd><mi>b</mi></mtd></mtr><mtr><mtd><mi>c</mi></mtd><mtd><mi>d</mi></mtd></mtr></mtable>" +
+                    "<mo>]</mo></mrow></math>\"}]}"
+    };
+
+    private final HttpServer httpServer;
+
+    private List<String> responses = List.of(DEFAULT_RESPONSES);
+    private LatencyDistribution latencyDistribution = LatencyDistribution.parse("fixed:0");
+    private double throttleRate;
+    private double serverErrorRate;
+
+    private final AtomicInteger responseIndex = new AtomicInteger();
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong multipartRequestCount = new AtomicLong();
+    private final AtomicLong throttledCount = new AtomicLong();
+    private final AtomicLong serverErrorCount = new AtomicLong();
+    private final AtomicLong receivedBytes = new AtomicLong();
+    private final AtomicLong sentBytes = new AtomicLong();
+
+    /**
+     * @param port port to listen on, 0 for an ephemeral port.
+     */
+    public MockMathpixServer(int port) throws IOException {
+        httpServer = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        httpServer.setExecutor(Executors.newCachedThreadPool());
+        httpServer.createContext("/v3/text", this::handle);
+    }
+
+    /**
+     * @param latencyDistribution latency added before each response.
+     */
+    public void setLatencyDistribution(LatencyDistribution latencyDistribution) {
+        this.latencyDistribution = latencyDistribution;
+    }
+
+    /**
+     * @param throttleRate fraction of requests answered with 429.
+     */
+    public void setThrottleRate(double throttleRate) {
+        this.throttleRate = throttleRate;
+    }
+
+    /**
+     * @param serverErrorRate fraction of requests answered with 500, 502 or 503.
+     */
+    public void setServerErrorRate(double serverErrorRate) {
+        this.serverErrorRate = serverErrorRate;
+    }
+
+    /**
+     * Replace the canned responses, one Json response per line.
+     *
+     * @param path JSONL file of responses.
+     */
+    public void loadResponses(Path path) throws IOException {
+
+        var lines = new ArrayList<String>();
+        for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+            if (!line.isBlank()) {
+                // validate early
+                JsonParser.parseString(line);
+                lines.add(line);
+            }
+        }
+
+        if (!lines.isEmpty()) {
+            responses = lines;
+        }
+
+    }
+
+    public void start() {
+        httpServer.start();
+    }
+
+    public void stop() {
+        httpServer.stop(0);
+    }
+
+    /**
+     * @return endpoint URL to be used as the "i2l.api.url" system property.
+     */
+    public String getUrl() {
+        return "http://localhost:" + httpServer.getAddress().getPort() + "/v3/text";
+    }
+
+    private void handle(HttpExchange httpExchange) throws IOException {
+
+        requestCount.incrementAndGet();
+
+        var contentType = httpExchange.getRequestHeaders().getFirst("Content-type");
+        if (contentType != null && contentType.startsWith("multipart/form-data")) {
+            multipartRequestCount.incrementAndGet();
+        }
+
+        // drain the body, counting bytes on the wire
+        var buffer = new byte[16 * 1024];
+        try (var inputStream = httpExchange.getRequestBody()) {
+            int count;
+            while ((count = inputStream.read(buffer)) != -1) {
+                receivedBytes.addAndGet(count);
+            }
+        }
+
+        try {
+            Thread.sleep(latencyDistribution.sample(ThreadLocalRandom.current()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        var random = ThreadLocalRandom.current().nextDouble();
+
+        if (random < throttleRate) {
+            throttledCount.incrementAndGet();
+            send(httpExchange, 429, error("Too many requests"));
+        } else if (random < throttleRate + serverErrorRate) {
+            serverErrorCount.incrementAndGet();
+            send(httpExchange, new int[]{500, 502, 503}[ThreadLocalRandom.current().nextInt(3)], error("Server error"));
+        } else {
+            send(httpExchange, 200, responses.get(Math.floorMod(responseIndex.getAndIncrement(), responses.size())));
+        }
+
+    }
+
+    private static String error(String message) {
+        var jsonObject = new JsonObject();
+        jsonObject.addProperty("error", message);
+        return jsonObject.toString();
+    }
+
+    private void send(HttpExchange httpExchange, int statusCode, String body) throws IOException {
+
+        var bytes = body.getBytes(StandardCharsets.UTF_8);
+        sentBytes.addAndGet(bytes.length);
+
+        httpExchange.getResponseHeaders().set("Content-type", "application/json");
+        httpExchange.sendResponseHeaders(statusCode, bytes.length);
+
+        try (var outputStream = httpExchange.getResponseBody()) {
+            outputStream.write(bytes);
+        }
+
+    }
+
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    public long getMultipartRequestCount() {
+        return multipartRequestCount.get();
+    }
+
+    public long getThrottledCount() {
+        return throttledCount.get();
+    }
+
+    public long getServerErrorCount() {
+        return serverErrorCount.get();
+    }
+
+    /**
+     * @return request body bytes received.
+     */
+    public long getReceivedBytes() {
+        return receivedBytes.get();
+    }
+
+    /**
+     * @return response body bytes sent.
+     */
+    public long getSentBytes() {
+        return sentBytes.get();
+    }
+
+    /**
+     * Run the stand-in on its own.
+     * Arguments: [port] [latency distribution] [throttle rate] [server error rate] [responses JSONL].
+     */
+    public static void main(String[] args) throws IOException {
+
+        var server = new MockMathpixServer(args.length > 0 ? Integer.parseInt(args[0]) : 8080);
+
+        if (args.length > 1) {
+            server.setLatencyDistribution(LatencyDistribution.parse(args[1]));
+        }
+        if (args.length > 2) {
+            server.setThrottleRate(Double.parseDouble(args[2]));
+        }
+        if (args.length > 3) {
+            server.setServerErrorRate(Double.parseDouble(args[3]));
+        }
+        if (args.length > 4) {
+            server.loadResponses(Path.of(args[4]));
+        }
+
+        server.start();
+        System.out.println("Mock Mathpix API listening on " + server.getUrl());
+
+    }
+
+    /**
+     * Scripted latency in milliseconds.
+     * Specification: "fixed:mean", "uniform:min:max", "normal:mean:stddev" or "lognormal:median:sigma",
+     * optionally followed by ":jitter" for an extra uniform jitter of up to the given milliseconds.
+     */
+    public static final class LatencyDistribution {
+
+        private final String type;
+        private final double first;
+        private final double second;
+        private final double jitter;
+
+        private LatencyDistribution(String type, double first, double second, double jitter) {
+            this.type = type;
+            this.first = first;
+            this.second = second;
+            this.jitter = jitter;
+        }
+
+        public static LatencyDistribution parse(String specification) {
+
+            var parts = specification.split(":");
+            var type = parts[0];
+            var first = parts.length > 1 ? Double.parseDouble(parts[1]) : 0;
+
+            if ("fixed".equals(type)) {
+                return new LatencyDistribution(type, first, 0, parts.length > 2 ? Double.parseDouble(parts[2]) : 0);
+            }
+
+            if (!"uniform".equals(type) && !"normal".equals(type) && !"lognormal".equals(type)) {
+                throw new IllegalArgumentException("Unknown latency distribution: " + specification);
+            }
+
+            var second = parts.length > 2 ? Double.parseDouble(parts[2]) : 0;
+            var jitter = parts.length > 3 ? Double.parseDouble(parts[3]) : 0;
+
+            return new LatencyDistribution(type, first, second, jitter);
+
+        }
+
+        /**
+         * @return latency in milliseconds.
+         */
+        public long sample(Random random) {
+
+            var latency = switch (type) {
+                case "uniform" -> first + random.nextDouble() * (second - first);
+                case "normal" -> first + random.nextGaussian() * second;
+                case "lognormal" -> first * Math.exp(random.nextGaussian() * second);
+                default -> first;
+            };
+
+            if (jitter > 0) {
+                latency += random.nextDouble() * jitter;
+            }
+
+            return Math.max(0, Math.round(latency));
+
+        }
+
+        @Override
+        public String toString() {
+            return type + "(" + first + ", " + second + ") + jitter " + jitter;
+        }
+
+    }
+
+}
@@ -0,0 +1,78 @@
+package io;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+
+/**
+ * IO.BenchmarkCorpus.java
+ * Mathpix API responses used by the benchmarks, one Json response per line of corpus.jsonl.
+ * The same file can be replayed by bench.MockMathpixServer.
+ */
+public class BenchmarkCorpus {
+
+    private static final List<String> RESPONSE_BODIES = load();
+
+    private static List<String> load() {
+
+        var inputStream = Objects.requireNonNull(BenchmarkCorpus.class.getClassLoader().getResourceAsStream("corpus.jsonl"));
+
+        try (var reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8))) {
+            return reader.lines().filter(line -> !line.isBlank()).collect(Collectors.toUnmodifiableList());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+    }
+
+    /**
+     * @return raw Json response bodies.
+     */
+    public static List<String> getResponseBodies() {
+        return RESPONSE_BODIES;
+    }
+
+    /**
+     * @return decoded responses.
+     */
+    public static List<Response> getResponses() {
+
+        var responses = new ArrayList<Response>(RESPONSE_BODIES.size());
+
+        for (String body : RESPONSE_BODIES) {
+            try {
+                responses.add(ResponseTypeAdapter.INSTANCE.fromJson(body));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        return responses;
+
+    }
+
+    /**
+     * @return "text" results of the responses.
+     */
+    public static List<String> getTexts() {
+        return getResponses().stream().map(Response::getText).collect(Collectors.toUnmodifiableList());
+    }
+
+    /**
+     * @param count number of results to join.
+     * @return a long multi-line result made of the corpus texts, e.g. a recognised page.
+     */
+    public static String getLongText(int count) {
+        var texts = getTexts();
+        return IntStream.range(0, count).mapToObj(index -> texts.get(index % texts.size())).collect(Collectors.joining("\n"));
+    }
+
+}
@@ -0,0 +1,191 @@
+package io;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * IO.FormattingBenchmark.java
+ * Result formatting as done for every response, over the corpus results one by one,
+ * or over a single long result made of 100 corpus results.
+ * The chained replacements and the wrapped check formerly used by IOUtils are kept as the baseline,
+ * the setup fails if IO.DelimiterRewriter or IO.LaTeXSegmentIndex output differs from them.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FormattingBenchmark {
+
+    private static final String[][] DELIMITERS = {
+            {"\\begin{equation*}", "\\end{equation*}"},
+            {"\\begin{align*}", "\\end{align*}"},
+            {"\\[", "\\]"},
+            {"$$", "$$"},
+            {"\\begin{align}", "\\end{align}"},
+            {"$", "$"},
+            {"\\begin{equation}", "\\end{equation}"},
+    };
+
+    @Param({"corpus", "long"})
+    public String input;
+
+    private List<String> texts;
+
+    @Setup
+    public void setup() {
+
+        texts = "long".equals(input) ? List.of(BenchmarkCorpus.getLongText(100)) : BenchmarkCorpus.getTexts();
+
+        for (String text : texts) {
+            if (chainedIsTextAllWrapped(text) != IOUtils.isTextAllWrapped(text)) {
+                throw new IllegalStateException("Wrapped check differs for: " + text);
+            }
+            for (String[] delimiters : DELIMITERS) {
+                if (!chainedFormatHelper(text, delimiters[0], delimiters[1]).equals(IOUtils.formatHelper(text, delimiters[0], delimiters[1]))) {
+                    throw new IllegalStateException("Formatting differs for " + delimiters[0] + ": " + text);
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Former IOUtils.isTextAllWrapped(), an indexOf() and substring() per delimiter.
+     */
+    private static boolean chainedIsTextAllWrapped(String string) {
+
+        if (!string.startsWith("\\(")) {
+            return false;
+        }
+
+        var rIndex = string.indexOf("\\)");
+
+        while (rIndex < string.length() - 2) {
+            var lIndex = string.indexOf("\\(", rIndex);
+            if (rIndex == -1 || lIndex == -1) {
+                return false;
+            }
+            if (string.substring(rIndex + 2, lIndex).trim().length() > 0) {
+                return false;
+            }
+            rIndex = string.indexOf("\\)", rIndex + 1);
+        }
+
+        return true;
+
+    }
+
+    /**
+     * Former IOUtils.formatHandler() and formatHelper(), a replacement pass per delimiter and a regex pass.
+     */
+    private static String chainedFormatHelper(String string, String leftDelimiter, String rightDelimiter) {
+
+        String lDelimiter;
+        String rDelimiter;
+
+        if ("$".equals(leftDelimiter)) {
+            lDelimiter = leftDelimiter;
+            rDelimiter = rightDelimiter;
+        } else {
+            lDelimiter = leftDelimiter + "\n";
+            rDelimiter = "\n" + rightDelimiter;
+        }
+
+        if (chainedIsTextAllWrapped(string)) {
+            return string.replace("\\(", lDelimiter).replace("\\)", rDelimiter).replaceAll("( )+", " ");
+        }
+
+        if ("$".equals(leftDelimiter)) {
+            lDelimiter = "\\[\n";
+            rDelimiter = "\n\\]";
+        }
+
+        return string.replace("\\(", "$").replace("\\)", "$").
+                replace("\\[\n", "\\[").replace("\n\\]", "\\]").
+                replace("\\[", lDelimiter).replace("\\]", rDelimiter).replaceAll("( )+", " ");
+
+    }
+
+    @Benchmark
+    public void chainedFormatHelperDisplay(Blackhole blackhole) {
+        for (String text : texts) {
+            blackhole.consume(chainedFormatHelper(text, "\\begin{equation}", "\\end{equation}"));
+        }
+    }
+
+    @Benchmark
+    public void formatHelperDisplay(Blackhole blackhole) {
+        for (String text : texts) {
+            blackhole.consume(IOUtils.formatHelper(text, "\\begin{equation}", "\\end{equation}"));
+        }
+    }
+
+    @Benchmark
+    public void formatHelperInline(Blackhole blackhole) {
+        for (String text : texts) {
+            blackhole.consume(IOUtils.formatHelper(text, "$", "$"));
+        }
+    }
+
+    @Benchmark
+    public void chainedIsTextAllWrapped(Blackhole blackhole) {
+        for (String text : texts) {
+            blackhole.consume(chainedIsTextAllWrapped(text));
+        }
+    }
+
+    @Benchmark
+    public void segmentIndex(Blackhole blackhole) {
+        for (String text : texts) {
+            blackhole.consume(LaTeXSegmentIndex.of(text));
+        }
+    }
+
+    @Benchmark
+    public void isTextAllWrapped(Blackhole blackhole) {
+        for (String text : texts) {
+            blackhole.consume(IOUtils.isTextAllWrapped(text));
+        }
+    }
+
+    @Benchmark
+    public void secondResultFormatter(Blackhole blackhole) {
+        for (String text : texts) {
+            blackhole.consume(IOUtils.secondResultFormatter(text));
+        }
+    }
+
+    @Benchmark
+    public void thirdResultFormatter(Blackhole blackhole) {
+        for (String text : texts) {
+            blackhole.consume(IOUtils.thirdResultFormatter(text));
+        }
+    }
+
+    /**
+     * Both formatted results in a single traversal.
+     */
+    @Benchmark
+    public void resultFormatter(Blackhole blackhole) {
+        for (String text : texts) {
+            blackhole.consume(IOUtils.resultFormatter(text));
+        }
+    }
+
+}
@@ -0,0 +1,115 @@
+package io;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * IO.PNGEncoderBenchmark.java
+ * Sequential and parallel PNG deflate of screenshots from a formula snippet to a 4K screen,
+ * the parallel encoding running on pools of 1 to 8 threads, see IO.ParallelDeflater.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PNGEncoderBenchmark {
+
+    @Param({"800x200", "1920x1080", "3840x2160"})
+    public String size;
+
+    @Param({"1", "2", "4", "8"})
+    public int parallelism;
+
+    @Param({"FAST", "DEFAULT"})
+    public PNGCompression compression;
+
+    private PixelSource image;
+    private ForkJoinPool pool;
+
+    @Setup
+    public void setup() {
+
+        var dimensions = size.split("x");
+        var width = Integer.parseInt(dimensions[0]);
+        var height = Integer.parseInt(dimensions[1]);
+
+        // a few lines of a formula on a white background
+        var bufferedImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        var graphics2D = bufferedImage.createGraphics();
+        graphics2D.setColor(Color.WHITE);
+        graphics2D.fillRect(0, 0, width, height);
+        graphics2D.setColor(Color.BLACK);
+        graphics2D.setFont(new Font(Font.SERIF, Font.ITALIC, Math.max(12, height / 12)));
+        for (int y = height / 8; y < height; y += height / 6) {
+            graphics2D.drawString("f(x) = x^2 + 2x + 1 = (x + 1)^2", width / 20, y);
+        }
+        graphics2D.dispose();
+
+        image = PixelSource.of(bufferedImage);
+        pool = new ForkJoinPool(parallelism);
+
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    /**
+     * Encoding on the calling thread, independent of the pool size.
+     */
+    @Benchmark
+    public long sequential() throws IOException {
+        var outputStream = new CountingOutputStream();
+        PNGEncoder.encodeSequentially(image, PNGFormat.RGBA_8, outputStream, compression);
+        return outputStream.count;
+    }
+
+    @Benchmark
+    public long parallel() throws IOException {
+        var outputStream = new CountingOutputStream();
+        PNGEncoder.encode(image, PNGFormat.RGBA_8, outputStream, compression, pool);
+        return outputStream.count;
+    }
+
+    /**
+     * Discards the bytes written, counting them.
+     */
+    private static final class CountingOutputStream extends OutputStream {
+
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            count += length;
+        }
+
+    }
+
+}
@@ -0,0 +1,238 @@
+package io;
+
+import javafx.application.Platform;
+import javafx.embed.swing.SwingFXUtils;
+import javafx.scene.image.Image;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.http.HttpRequest;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * IO.RecognitionBenchmark.java
+ * Per-request image work across screenshot sizes: the clipboard image conversion, cropping and downscaling,
+ * the result cache key and the PNG/Base64 request body encoding.
+ * The IO.PNGEncoder presets are compared with the former SwingFXUtils and ImageIO path,
+ * and the RGBA encoding with the reduced IO.PNGFormat of the image, lossless or quantised.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RecognitionBenchmark {
+
+    @Param({"300x80", "800x200", "1600x400", "3200x1000"})
+    public String size;
+
+    private BufferedImage bufferedImage;
+    private Image image;
+
+    private final Recognition recognition = new Recognition();
+
+    @Setup
+    public void setup() {
+
+        var dimensions = size.split("x");
+        var width = Integer.parseInt(dimensions[0]);
+        var height = Integer.parseInt(dimensions[1]);
+
+        bufferedImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        var graphics2D = bufferedImage.createGraphics();
+        graphics2D.setColor(Color.WHITE);
+        graphics2D.fillRect(0, 0, width, height);
+        graphics2D.setColor(Color.BLACK);
+        graphics2D.setFont(new Font(Font.SERIF, Font.ITALIC, height / 3));
+        graphics2D.drawString("f(x) = x^2 + 2x + 1", width / 20, height * 2 / 3);
+        graphics2D.dispose();
+
+        // the JavaFX toolkit is needed to create a javafx.scene.image.Image
+        try {
+            Platform.startup(() -> {
+            });
+        } catch (IllegalStateException ignored) {
+            // already started
+        }
+
+        image = SwingFXUtils.toFXImage(bufferedImage, null);
+
+    }
+
+    /**
+     * Conversion of a clipboard image, as done on the FX thread before each request.
+     */
+    @Benchmark
+    public Boolean setSrcParametersImage() {
+        return recognition.setSrcParameters(image);
+    }
+
+    @Benchmark
+    public Boolean setSrcParametersBufferedImage() {
+        return recognition.setSrcParameters(bufferedImage);
+    }
+
+    /**
+     * Glyph height estimation and area averaging of the images with large glyphs, the others are returned as they are.
+     */
+    @Benchmark
+    public int downscale() {
+        return ImageDownscaler.downscale(PixelSource.of(bufferedImage)).getWidth();
+    }
+
+    /**
+     * Pixel snapshot and ink projections of the clipboard image, shared by the preview and the upload.
+     */
+    @Benchmark
+    public int contentBounds() {
+        return ImageCropper.crop(image).getBounds().width;
+    }
+
+    @Benchmark
+    public String getCacheKey() {
+        recognition.setSrcParameters(bufferedImage);
+        return recognition.getCacheKey();
+    }
+
+    @Benchmark
+    public long jsonRequestBody() throws Exception {
+        recognition.setSrcParameters(bufferedImage);
+        return drain(recognition.getJsonRequestBody());
+    }
+
+    @Benchmark
+    public long multipartRequestBody() throws Exception {
+        recognition.setSrcParameters(bufferedImage);
+        return drain(recognition.getMultipartRequestBody(ImageBodyPublisher.newBoundary()));
+    }
+
+    /**
+     * Former encoding of a clipboard image: a copy to a BufferedImage, then the JDK PNG writer.
+     */
+    @Benchmark
+    public long imageIOWritePNG() throws IOException {
+        var outputStream = new CountingOutputStream();
+        ImageIO.write(SwingFXUtils.fromFXImage(image, null), "png", outputStream);
+        return outputStream.count;
+    }
+
+    @Benchmark
+    public long encodePNGFast() throws IOException {
+        return encodePNG(PNGCompression.FAST);
+    }
+
+    @Benchmark
+    public long encodePNGDefault() throws IOException {
+        return encodePNG(PNGCompression.DEFAULT);
+    }
+
+    @Benchmark
+    public long encodePNGSmall() throws IOException {
+        return encodePNG(PNGCompression.SMALL);
+    }
+
+    /**
+     * Lossless colour reduction, including the pass choosing the format.
+     */
+    @Benchmark
+    public long encodePNGReduced() throws IOException {
+        var pixelSource = PixelSource.of(image);
+        return PNGEncoder.encode(pixelSource, PNGFormat.of(pixelSource, false), new CountingOutputStream(), PNGCompression.DEFAULT);
+    }
+
+    @Benchmark
+    public long encodePNGQuantised() throws IOException {
+        var pixelSource = PixelSource.of(image);
+        return PNGEncoder.encode(pixelSource, PNGFormat.of(pixelSource, true), new CountingOutputStream(), PNGCompression.DEFAULT);
+    }
+
+    /**
+     * RGBA encoding of a clipboard image read through its PixelReader.
+     *
+     * @return PNG size in bytes.
+     */
+    private long encodePNG(PNGCompression compression) throws IOException {
+        var outputStream = new CountingOutputStream();
+        PNGEncoder.encode(PixelSource.of(image), PNGFormat.RGBA_8, outputStream, compression);
+        return outputStream.count;
+    }
+
+    /**
+     * Discards the bytes written, counting them.
+     */
+    private static final class CountingOutputStream extends OutputStream {
+
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            count += length;
+        }
+
+    }
+
+    /**
+     * Subscribe to the request body as HttpClient would.
+     *
+     * @return number of bytes published.
+     */
+    private static long drain(HttpRequest.BodyPublisher bodyPublisher) throws Exception {
+
+        var result = new CompletableFuture<Long>();
+
+        bodyPublisher.subscribe(new Flow.Subscriber<>() {
+
+            private long count;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(ByteBuffer item) {
+                count += item.remaining();
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                result.completeExceptionally(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                result.complete(count);
+            }
+
+        });
+
+        return result.get();
+
+    }
+
+}
@@ -0,0 +1,95 @@
+package io;
+
+import com.google.gson.JsonParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+
+/**
+ * IO.ResponseBenchmark.java
+ * Response decoding and "data" lookup over the corpus.
+ * Run with -prof gc (jmhProfilers=gc) to compare the allocations of streaming and tree decoding.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ResponseBenchmark {
+
+    private List<byte[]> bodies;
+    private List<Response> responses;
+
+    @Setup
+    public void setup() {
+        bodies = BenchmarkCorpus.getResponseBodies().stream().
+                map(body -> body.getBytes(StandardCharsets.UTF_8)).collect(Collectors.toUnmodifiableList());
+        responses = BenchmarkCorpus.getResponses();
+    }
+
+    /**
+     * IO.ResponseTypeAdapter reading straight from the response body stream.
+     */
+    @Benchmark
+    public void decodeStreaming(Blackhole blackhole) throws IOException {
+        for (byte[] body : bodies) {
+            blackhole.consume(ResponseTypeAdapter.decode(new ByteArrayInputStream(body)));
+        }
+    }
+
+    /**
+     * Baseline, the whole body is read into a string and a Json tree before being mapped.
+     */
+    @Benchmark
+    public void decodeTree(Blackhole blackhole) {
+        for (byte[] body : bodies) {
+            var jsonElement = JsonParser.parseString(new String(body, StandardCharsets.UTF_8));
+            blackhole.consume(ResponseTypeAdapter.INSTANCE.fromJsonTree(jsonElement));
+        }
+    }
+
+    /**
+     * First lookup on a new response, as done once per result.
+     */
+    @Benchmark
+    public void getMathML(Blackhole blackhole) {
+        for (Response response : responses) {
+            blackhole.consume(copy(response).getMathML());
+        }
+    }
+
+    /**
+     * First lookup on a new response, as done once per result.
+     */
+    @Benchmark
+    public void getTSV(Blackhole blackhole) {
+        for (Response response : responses) {
+            blackhole.consume(copy(response).getTSV());
+        }
+    }
+
+    /**
+     * @return a response without memoised lookups.
+     */
+    private static Response copy(Response response) {
+        return new Response(response.getError(), response.getText(), response.getConfidence(), response.getData());
+    }
+
+}
@@ -0,0 +1,87 @@
+package ui;
+
+import io.BenchmarkCorpus;
+import io.IOUtils;
+import io.LaTeXSegmentIndex;
+import javafx.application.Platform;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.scilab.forge.jlatexmath.TeXConstants;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+
+/**
+ * UI.RenderingBenchmark.java
+ * Rendering of the corpus results that are displayed as an equation, see UI.BackGridPane.
+ * After the first iteration render() is answered by UI.RenderCache, createImage() always renders.
+ * Results mixing text and math are rendered segment by segment by createSegmentedImage().
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RenderingBenchmark {
+
+    private List<String> texts;
+    private List<LaTeXSegmentIndex> segmentIndexes;
+
+    @Setup
+    public void setup() {
+
+        // the JavaFX toolkit is needed to create a javafx.scene.image.Image
+        try {
+            Platform.startup(() -> {
+            });
+        } catch (IllegalStateException ignored) {
+            // already started
+        }
+
+        texts = BenchmarkCorpus.getTexts().stream().filter(IOUtils::isTextAllWrapped).collect(Collectors.toUnmodifiableList());
+
+        segmentIndexes = BenchmarkCorpus.getTexts().stream().filter(text -> !IOUtils.isTextAllWrapped(text))
+                .map(LaTeXSegmentIndex::of).collect(Collectors.toUnmodifiableList());
+
+    }
+
+    @Benchmark
+    public void render(Blackhole blackhole) {
+        for (String text : texts) {
+            blackhole.consume(JLaTeXMathRenderingHelper.render(text));
+        }
+    }
+
+    @Benchmark
+    public void createImage(Blackhole blackhole) {
+        for (String text : texts) {
+            blackhole.consume(JLaTeXMathRenderingHelper.createImage(text, TeXConstants.STYLE_DISPLAY, 20, 5, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY));
+        }
+    }
+
+    @Benchmark
+    public void createSegmentedImage(Blackhole blackhole) {
+        for (LaTeXSegmentIndex segmentIndex : segmentIndexes) {
+            blackhole.consume(SegmentRenderingHelper.createImage(segmentIndex, 20, 5, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.out.println(RenderCache.getStatistics());
+    }
+
+}
@@ -0,0 +1,314 @@
+package entry;
+
+import com.google.gson.JsonObject;
+import io.IOUtils;
+import io.PreferenceHelper;
+import io.Recognition;
+import io.Response;
+
+import javax.imageio.ImageIO;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+
+/**
+ * entry.BatchProcessor.java
+ * Headless OCR of a folder or a glob of images with a bounded pool of workers.
+ * Results are appended to a JSONL file with the PNG format and size of each upload, and written as .tex sidecars,
+ * throughput, latency percentiles and upload sizes are printed at the end.
+ */
+public class BatchProcessor {
+
+    private static final Set<String> IMAGE_EXTENSIONS = Set.of("png", "jpg", "jpeg", "gif", "bmp");
+    private static final String RESULT_FILE_NAME = "results.jsonl";
+
+    private final int threadCount;
+    private final Path outputDirectory;
+
+    private final LatencyRecorder latencyRecorder = new LatencyRecorder();
+    private final AtomicInteger failureCount = new AtomicInteger();
+    private final AtomicLong uploadSize = new AtomicLong();
+
+    /**
+     * @param threadCount     number of concurrent requests.
+     * @param outputDirectory directory of the results, null for the directory of the images.
+     */
+    public BatchProcessor(int threadCount, Path outputDirectory) {
+        this.threadCount = threadCount;
+        this.outputDirectory = outputDirectory;
+    }
+
+    /**
+     * Recognise all images matched by the source.
+     *
+     * @param source directory or glob pattern of images.
+     * @return whether all images have been recognised.
+     */
+    public boolean run(String source) throws IOException, InterruptedException {
+
+        if (!IOUtils.isAPICredentialConfigValid()) {
+            System.err.println(IOUtils.INVALID_CREDENTIALS_ERROR);
+            return false;
+        }
+
+        var baseDirectory = getBaseDirectory(source);
+        var imagePaths = getImagePaths(source, baseDirectory);
+
+        if (imagePaths.isEmpty()) {
+            System.err.println("No image found in " + source);
+            return false;
+        }
+
+        var resultDirectory = outputDirectory != null ? outputDirectory : baseDirectory;
+        Files.createDirectories(resultDirectory);
+
+        var executor = Executors.newFixedThreadPool(threadCount);
+        var startTime = System.nanoTime();
+
+        try (var resultWriter = Files.newBufferedWriter(resultDirectory.resolve(RESULT_FILE_NAME), StandardCharsets.UTF_8)) {
+
+            var futures = new ArrayList<Future<?>>(imagePaths.size());
+            for (Path imagePath : imagePaths) {
+                futures.add(executor.submit(() -> process(imagePath, baseDirectory, resultWriter)));
+            }
+
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    failureCount.incrementAndGet();
+                }
+            }
+
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+
+        var elapsedSeconds = (System.nanoTime() - startTime) / 1e9;
+
+        System.out.printf("%d images, %d failed, %.1f s, %.2f images/s%n", imagePaths.size(), failureCount.get(),
+                elapsedSeconds, imagePaths.size() / elapsedSeconds);
+        System.out.println("Latency: " + latencyRecorder.getSummary());
+        System.out.printf("Upload: %.1f KB of PNG%n", uploadSize.get() / 1024.0);
+
+        return failureCount.get() == 0;
+
+    }
+
+    /**
+     * Recognise a single image, write its JSONL line and .tex sidecar.
+     */
+    private void process(Path imagePath, Path baseDirectory, BufferedWriter resultWriter) {
+
+        var result = new JsonObject();
+        result.addProperty("file", imagePath.toString());
+
+        var startTime = System.nanoTime();
+
+        try {
+            var image = ImageIO.read(imagePath.toFile());
+
+            if (image == null) {
+                result.addProperty("error", "Unsupported image format");
+            } else {
+                // a Recognition per request, the instance holds the image
+                var recognition = new Recognition();
+                recognition.setUploadMode(PreferenceHelper.getUploadMode());
+                recognition.setCompression(PreferenceHelper.getPNGCompression());
+                recognition.setQuantisation(PreferenceHelper.getPNGQuantisationEnableOption());
+                recognition.setDownscaling(PreferenceHelper.getDownscalingEnableOption());
+                recognition.setCropping(PreferenceHelper.getCroppingEnableOption());
+                var response = IOUtils.concurrentCall(recognition, image);
+                addUpload(result, recognition);
+                addResponse(result, response, getSidecarPath(imagePath, baseDirectory));
+            }
+        } catch (IOException e) {
+            result.addProperty("error", e.getMessage());
+        } catch (RuntimeException e) {
+            // a failure of one image is still written as its line
+            result.addProperty("error", e.toString());
+        }
+
+        var latency = System.nanoTime() - startTime;
+        latencyRecorder.record(latency);
+        result.addProperty("latency_ms", TimeUnit.NANOSECONDS.toMillis(latency));
+
+        if (result.has("error")) {
+            failureCount.incrementAndGet();
+            System.err.println(imagePath + ": " + result.get("error").getAsString());
+        }
+
+        synchronized (resultWriter) {
+            try {
+                resultWriter.write(result.toString());
+                resultWriter.newLine();
+                resultWriter.flush();
+            } catch (IOException e) {
+                System.err.println(imagePath + ": " + e.getMessage());
+            }
+        }
+
+    }
+
+    /**
+     * Add the format and the size of the uploaded PNG to the JSONL line, nothing if no image has been uploaded.
+     */
+    private void addUpload(JsonObject result, Recognition recognition) {
+
+        var format = recognition.getUploadFormat();
+
+        if (format == null) {
+            return;
+        }
+
+        result.addProperty("png_format", format.toString());
+        result.addProperty("png_bytes", recognition.getUploadSize());
+        // uncompressed raster bytes, not a saving in PNG bytes
+        result.addProperty("raw_bytes_saved", recognition.getUploadBytesSaved());
+
+        uploadSize.addAndGet(recognition.getUploadSize());
+
+    }
+
+    /**
+     * Add the response fields to the JSONL line, write the .tex sidecar of a successful result.
+     */
+    private void addResponse(JsonObject result, Response response, Path sidecarPath) throws IOException {
+
+        if (response == null) {
+            result.addProperty("error", IOUtils.UNEXPECTED_ERROR);
+            return;
+        }
+
+        if (response.getError() != null) {
+            result.addProperty("error", response.getError());
+            return;
+        }
+
+        var text = response.getText();
+        var formattedResults = IOUtils.resultFormatter(response.getSegmentIndex());
+        var secondResult = formattedResults[0];
+
+        result.addProperty("text", text);
+        result.addProperty("second_result", secondResult);
+        result.addProperty("third_result", formattedResults[1]);
+        result.addProperty("confidence", response.getConfidence());
+
+        Files.createDirectories(sidecarPath.getParent());
+        Files.writeString(sidecarPath, secondResult + "\n", StandardCharsets.UTF_8);
+
+    }
+
+    /**
+     * @return .tex sidecar next to the image, or at the path of the image relative to the base directory in the output
+     * directory, so that images of the same name in different subdirectories do not overwrite each other's sidecar.
+     */
+    private Path getSidecarPath(Path imagePath, Path baseDirectory) {
+
+        var fileName = imagePath.getFileName().toString();
+        var sidecarName = fileName.substring(0, fileName.lastIndexOf('.')) + ".tex";
+
+        if (outputDirectory == null) {
+            return imagePath.resolveSibling(sidecarName);
+        }
+
+        return outputDirectory.resolve(baseDirectory.relativize(imagePath)).resolveSibling(sidecarName);
+
+    }
+
+    /**
+     * @return index of the first wildcard, -1 if the source is not a glob.
+     */
+    private static int getWildcardIndex(String source) {
+
+        var wildcardIndex = -1;
+        for (char wildcard : new char[]{'*', '?', '[', '{'}) {
+            var index = source.indexOf(wildcard);
+            if (index >= 0 && (wildcardIndex < 0 || index < wildcardIndex)) {
+                wildcardIndex = index;
+            }
+        }
+
+        return wildcardIndex;
+
+    }
+
+    /**
+     * @return index of the last path separator before the first wildcard, -1 if none.
+     */
+    private static int getGlobSeparatorIndex(String source) {
+        var wildcardIndex = getWildcardIndex(source);
+        return Math.max(source.lastIndexOf('/', wildcardIndex), source.lastIndexOf(File.separatorChar, wildcardIndex));
+    }
+
+    /**
+     * @return the directory itself, or the directory of the glob before its first wildcard.
+     */
+    private static Path getBaseDirectory(String source) {
+
+        if (getWildcardIndex(source) < 0) {
+            return Path.of(source);
+        }
+
+        var separatorIndex = getGlobSeparatorIndex(source);
+
+        if (separatorIndex < 0) {
+            return Path.of(".");
+        }
+
+        return Path.of(separatorIndex == 0 ? source.substring(0, 1) : source.substring(0, separatorIndex));
+
+    }
+
+    /**
+     * @return sorted paths of the images in the directory, or matching the glob relative to the base directory.
+     */
+    private static List<Path> getImagePaths(String source, Path baseDirectory) throws IOException {
+
+        if (!Files.isDirectory(baseDirectory)) {
+            return List.of();
+        }
+
+        if (getWildcardIndex(source) < 0) {
+            try (var paths = Files.list(baseDirectory)) {
+                return paths.filter(BatchProcessor::isImage).sorted().collect(Collectors.toList());
+            }
+        }
+
+        var pattern = source.substring(getGlobSeparatorIndex(source) + 1);
+        var pathMatcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+
+        try (var paths = Files.walk(baseDirectory)) {
+            return paths.filter(path -> pathMatcher.matches(baseDirectory.relativize(path))).
+                    filter(BatchProcessor::isImage).sorted().collect(Collectors.toList());
+        }
+
+    }
+
+    /**
+     * @return whether the path is a file with an image extension.
+     */
+    private static boolean isImage(Path path) {
+        var fileName = path.getFileName().toString().toLowerCase(Locale.ROOT);
+        var extensionIndex = fileName.lastIndexOf('.');
+        return Files.isRegularFile(path) && extensionIndex > 0 && IMAGE_EXTENSIONS.contains(fileName.substring(extensionIndex + 1));
+    }
+
+}
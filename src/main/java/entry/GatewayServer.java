@@ -0,0 +1,402 @@
+package entry;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.HttpClientManager;
+import io.IOUtils;
+import io.PreferenceHelper;
+import io.Recognition;
+import io.RequestCoalescer;
+import io.Response;
+import io.ResponseTypeAdapter;
+import io.ResultCache;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * entry.GatewayServer.java
+ * Local HTTP gateway sharing one set of API credentials, result cache and connection pool between clients.
+ * POST /v3/text accepts either a raw image body or Mathpix style Json with a "src" data URI,
+ * requests are processed by a bounded worker pool and rejected with 503 once its queue is full.
+ * GET /stats reports per-client accounting, cache, coalescing and connection statistics.
+ * Bound to the loopback address by default; on any other address every request must carry the shared access token
+ * as "Authorization: Bearer <token>", so that the API credentials are not open to the whole network.
+ */
+public class GatewayServer {
+
+    private static final String CLIENT_ID_HEADER = "X-Client-Id";
+    private static final String AUTHORIZATION_PREFIX = "Bearer ";
+
+    // larger bodies are rejected with 413, well above a Base64 encoded 4K screenshot
+    private static final long MAX_BODY_SIZE = 32 * 1024 * 1024;
+
+    // larger images are rejected with 413 before their raster is allocated, above an 8K screenshot
+    private static final long MAX_PIXEL_COUNT = 40_000_000;
+
+    // latencies of the latest requests reported by /stats, the server runs until it is stopped
+    private static final int LATENCY_WINDOW = 10_000;
+
+    private final HttpServer httpServer;
+    private final ThreadPoolExecutor workerPool;
+
+    // UTF-8 bytes of the access token, null if requests are not authenticated
+    private final byte[] accessToken;
+
+    private final LatencyRecorder latencyRecorder = new LatencyRecorder(LATENCY_WINDOW);
+    private final Map<String, ClientStatistics> clientStatisticsMap = new ConcurrentHashMap<>();
+
+    /**
+     * @param bindAddress   address to listen on.
+     * @param port          port to listen on.
+     * @param threadCount   number of concurrent OCR requests.
+     * @param queueCapacity number of requests waiting for a worker before new ones are rejected.
+     * @param accessToken   token required from every client, null to accept unauthenticated requests.
+     * @throws IllegalArgumentException if a non-loopback address is given without an access token.
+     */
+    public GatewayServer(InetAddress bindAddress, int port, int threadCount, int queueCapacity, String accessToken)
+            throws IOException {
+
+        if (!bindAddress.isLoopbackAddress() && (accessToken == null || accessToken.isBlank())) {
+            throw new IllegalArgumentException("An access token is required to listen on " + bindAddress.getHostAddress());
+        }
+
+        this.accessToken = accessToken == null || accessToken.isBlank() ? null : accessToken.getBytes(StandardCharsets.UTF_8);
+
+        workerPool = new ThreadPoolExecutor(threadCount, threadCount, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), new ThreadPoolExecutor.AbortPolicy());
+
+        httpServer = HttpServer.create(new InetSocketAddress(bindAddress, port), 0);
+        // request bodies are read here, the OCR work is handed over to the worker pool
+        httpServer.setExecutor(Executors.newFixedThreadPool(threadCount));
+        httpServer.createContext("/v3/text", this::handleRecognition);
+        httpServer.createContext("/stats", this::handleStatistics);
+
+    }
+
+    /**
+     * Start listening.
+     */
+    public void start() {
+        httpServer.start();
+        var address = httpServer.getAddress();
+        System.out.println("Listening on http://" + address.getHostString() + ":" + address.getPort() + "/v3/text" +
+                (accessToken != null ? ", access token required" : ""));
+    }
+
+    /**
+     * Stop listening and wait for the pending requests.
+     */
+    public void stop() throws InterruptedException {
+        httpServer.stop(1);
+        workerPool.shutdown();
+        workerPool.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    /**
+     * POST /v3/text handler.
+     */
+    private void handleRecognition(HttpExchange httpExchange) throws IOException {
+
+        if (!"POST".equals(httpExchange.getRequestMethod())) {
+            sendError(httpExchange, 405, "Method not allowed");
+            return;
+        }
+
+        // unauthenticated requests are not accounted to any client
+        if (!isAuthorised(httpExchange)) {
+            sendUnauthorised(httpExchange);
+            return;
+        }
+
+        var clientStatistics = clientStatisticsMap.computeIfAbsent(getClientId(httpExchange), key -> new ClientStatistics());
+        clientStatistics.requestCount.incrementAndGet();
+
+        var startTime = System.nanoTime();
+
+        byte[] body;
+        try (var inputStream = httpExchange.getRequestBody()) {
+            // one byte beyond the limit tells an oversized body, chunked bodies have no Content-Length
+            body = getContentLength(httpExchange) > MAX_BODY_SIZE ? null : inputStream.readNBytes((int) MAX_BODY_SIZE + 1);
+        }
+
+        if (body == null || body.length > MAX_BODY_SIZE) {
+            clientStatistics.errorCount.incrementAndGet();
+            sendError(httpExchange, 413, "Request body larger than " + MAX_BODY_SIZE / 1024 / 1024 + " MB");
+            return;
+        }
+
+        BufferedImage image;
+        try {
+            image = decodeImage(httpExchange.getRequestHeaders().getFirst("Content-type"), body);
+        } catch (ImageTooLargeException e) {
+            clientStatistics.errorCount.incrementAndGet();
+            sendError(httpExchange, 413, e.getMessage());
+            return;
+        } catch (IOException | RuntimeException e) {
+            image = null;
+        }
+
+        if (image == null) {
+            clientStatistics.errorCount.incrementAndGet();
+            sendError(httpExchange, 400, "Unreadable image");
+            return;
+        }
+
+        var finalImage = image;
+
+        try {
+            workerPool.execute(() -> {
+                try {
+                    respond(httpExchange, finalImage, clientStatistics, startTime);
+                } catch (IOException ignored) {
+                    // client has gone away
+                } catch (RuntimeException | Error e) {
+                    // a hostile image or an out of memory error still gets an answer, the client would wait otherwise
+                    clientStatistics.errorCount.incrementAndGet();
+                    sendInternalError(httpExchange);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // backpressure, the client should retry later
+            clientStatistics.rejectedCount.incrementAndGet();
+            httpExchange.getResponseHeaders().set("Retry-After", "1");
+            sendError(httpExchange, 503, "Too many pending requests");
+        }
+
+    }
+
+    /**
+     * Recognise the image and send the result, runs on the worker pool.
+     */
+    private void respond(HttpExchange httpExchange, BufferedImage image, ClientStatistics clientStatistics, long startTime)
+            throws IOException {
+
+        var recognition = new Recognition();
+        recognition.setUploadMode(PreferenceHelper.getUploadMode());
+        recognition.setCompression(PreferenceHelper.getPNGCompression());
+        recognition.setQuantisation(PreferenceHelper.getPNGQuantisationEnableOption());
+        recognition.setDownscaling(PreferenceHelper.getDownscalingEnableOption());
+        recognition.setCropping(PreferenceHelper.getCroppingEnableOption());
+
+        var response = IOUtils.concurrentCall(recognition, image);
+
+        var latency = System.nanoTime() - startTime;
+        latencyRecorder.record(latency);
+        clientStatistics.totalLatency.addAndGet(latency);
+
+        if (response == null) {
+            response = new Response(IOUtils.UNEXPECTED_ERROR);
+        }
+
+        var result = ResponseTypeAdapter.INSTANCE.toJsonTree(response).getAsJsonObject();
+
+        if (response.getError() != null) {
+            clientStatistics.errorCount.incrementAndGet();
+        } else {
+            var formattedResults = IOUtils.resultFormatter(response.getSegmentIndex());
+            result.addProperty("second_result", formattedResults[0]);
+            result.addProperty("third_result", formattedResults[1]);
+        }
+
+        send(httpExchange, 200, result);
+
+    }
+
+    /**
+     * GET /stats handler.
+     */
+    private void handleStatistics(HttpExchange httpExchange) throws IOException {
+
+        if (!isAuthorised(httpExchange)) {
+            sendUnauthorised(httpExchange);
+            return;
+        }
+
+        var statistics = new JsonObject();
+
+        statistics.addProperty("active_workers", workerPool.getActiveCount());
+        statistics.addProperty("queued_requests", workerPool.getQueue().size());
+        statistics.addProperty("latency", latencyRecorder.getSummary());
+        statistics.addProperty("cache", ResultCache.getStatistics());
+        statistics.addProperty("coalescing", RequestCoalescer.getStatistics());
+        statistics.addProperty("connections", HttpClientManager.getStatistics());
+
+        var clients = new JsonObject();
+        new TreeMap<>(clientStatisticsMap).forEach((clientId, clientStatistics) -> clients.add(clientId, clientStatistics.toJson()));
+        statistics.add("clients", clients);
+
+        send(httpExchange, 200, statistics);
+
+    }
+
+    /**
+     * Decode a raw image body, or the "src" data URI of a Json body.
+     * The size is read from the header first, a small file may declare a raster too large for the heap.
+     *
+     * @return decoded image, null if unreadable.
+     * @throws ImageTooLargeException if the image has more than MAX_PIXEL_COUNT pixels.
+     */
+    private static BufferedImage decodeImage(String contentType, byte[] body) throws IOException {
+
+        if (contentType != null && contentType.startsWith("application/json")) {
+            var src = JsonParser.parseString(new String(body, StandardCharsets.UTF_8)).getAsJsonObject().get("src").getAsString();
+            body = Base64.getDecoder().decode(src.substring(src.indexOf(',') + 1));
+        }
+
+        try (var imageInputStream = ImageIO.createImageInputStream(new ByteArrayInputStream(body))) {
+
+            var imageReaders = ImageIO.getImageReaders(imageInputStream);
+            if (!imageReaders.hasNext()) {
+                return null;
+            }
+
+            var imageReader = imageReaders.next();
+            try {
+                imageReader.setInput(imageInputStream, true, true);
+                if ((long) imageReader.getWidth(0) * imageReader.getHeight(0) > MAX_PIXEL_COUNT) {
+                    throw new ImageTooLargeException("Image larger than " + MAX_PIXEL_COUNT / 1_000_000 + " M pixels");
+                }
+                return imageReader.read(0);
+            } finally {
+                imageReader.dispose();
+            }
+
+        }
+
+    }
+
+    /**
+     * @return whether the request carries the access token, always true without one.
+     */
+    private boolean isAuthorised(HttpExchange httpExchange) {
+
+        if (accessToken == null) {
+            return true;
+        }
+
+        var authorization = httpExchange.getRequestHeaders().getFirst("Authorization");
+        if (authorization == null || !authorization.startsWith(AUTHORIZATION_PREFIX)) {
+            return false;
+        }
+
+        // constant-time comparison
+        var token = authorization.substring(AUTHORIZATION_PREFIX.length()).getBytes(StandardCharsets.UTF_8);
+        return MessageDigest.isEqual(token, accessToken);
+
+    }
+
+    /**
+     * @return declared length of the request body, -1 if unknown.
+     */
+    private static long getContentLength(HttpExchange httpExchange) {
+        try {
+            return Long.parseLong(httpExchange.getRequestHeaders().getFirst("Content-length"));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return client id from the X-Client-Id header, or the remote address.
+     */
+    private static String getClientId(HttpExchange httpExchange) {
+        var clientId = httpExchange.getRequestHeaders().getFirst(CLIENT_ID_HEADER);
+        return clientId != null && !clientId.isBlank() ? clientId : httpExchange.getRemoteAddress().getAddress().getHostAddress();
+    }
+
+    private static void sendUnauthorised(HttpExchange httpExchange) throws IOException {
+        httpExchange.getResponseHeaders().set("WWW-Authenticate", "Bearer");
+        sendError(httpExchange, 401, "Missing or invalid access token");
+    }
+
+    private static void sendError(HttpExchange httpExchange, int statusCode, String error) throws IOException {
+        var result = new JsonObject();
+        result.addProperty("error", error);
+        send(httpExchange, statusCode, result);
+    }
+
+    /**
+     * Answer a failed recognition with 500, the exchange is closed even if the response has been started.
+     */
+    private static void sendInternalError(HttpExchange httpExchange) {
+        try {
+            sendError(httpExchange, 500, IOUtils.UNEXPECTED_ERROR);
+        } catch (IOException ignored) {
+            // client has gone away, or the response headers have already been sent
+        } finally {
+            httpExchange.close();
+        }
+    }
+
+    private static void send(HttpExchange httpExchange, int statusCode, JsonObject result) throws IOException {
+
+        var bytes = result.toString().getBytes(StandardCharsets.UTF_8);
+
+        httpExchange.getResponseHeaders().set("Content-type", "application/json; charset=utf-8");
+        httpExchange.sendResponseHeaders(statusCode, bytes.length);
+
+        try (var outputStream = httpExchange.getResponseBody()) {
+            outputStream.write(bytes);
+        }
+
+    }
+
+    /**
+     * Image declaring more pixels than the gateway decodes.
+     */
+    private static final class ImageTooLargeException extends IOException {
+
+        private ImageTooLargeException(String message) {
+            super(message);
+        }
+
+    }
+
+    /**
+     * Per-client request accounting.
+     */
+    private static final class ClientStatistics {
+
+        private final AtomicLong requestCount = new AtomicLong();
+        private final AtomicLong errorCount = new AtomicLong();
+        private final AtomicLong rejectedCount = new AtomicLong();
+        private final AtomicLong totalLatency = new AtomicLong();
+
+        private JsonObject toJson() {
+
+            var jsonObject = new JsonObject();
+            var completedCount = requestCount.get() - rejectedCount.get();
+
+            jsonObject.addProperty("requests", requestCount.get());
+            jsonObject.addProperty("errors", errorCount.get());
+            jsonObject.addProperty("rejected", rejectedCount.get());
+            jsonObject.addProperty("mean_latency_ms", completedCount > 0 ?
+                    TimeUnit.NANOSECONDS.toMillis(totalLatency.get() / completedCount) : 0);
+
+            return jsonObject;
+
+        }
+
+    }
+
+}
@@ -0,0 +1,101 @@
+package entry;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * entry.LatencyRecorder.java
+ * Records request latencies and reports nearest-rank percentiles.
+ * Unbounded for runs of a known size, or a ring buffer keeping the latest latencies for long-running servers.
+ */
+public class LatencyRecorder {
+
+    // maximal number of latencies kept, 0 for unbounded
+    private final int capacity;
+
+    private long[] latencies;
+    private int count;
+    // index of the oldest latency once the ring buffer is full
+    private int next;
+
+    /**
+     * Keep every latency.
+     */
+    public LatencyRecorder() {
+        capacity = 0;
+        latencies = new long[64];
+    }
+
+    /**
+     * @param capacity number of latest latencies kept.
+     */
+    public LatencyRecorder(int capacity) {
+        this.capacity = capacity;
+        latencies = new long[capacity];
+    }
+
+    /**
+     * @param nanos latency in nanoseconds.
+     */
+    public synchronized void record(long nanos) {
+
+        if (capacity > 0 && count == capacity) {
+            // the oldest latency is replaced
+            latencies[next] = nanos;
+            next = (next + 1) % capacity;
+            return;
+        }
+
+        if (count == latencies.length) {
+            latencies = Arrays.copyOf(latencies, count * 2);
+        }
+        latencies[count++] = nanos;
+
+    }
+
+    /**
+     * @return number of recorded latencies kept.
+     */
+    public synchronized int getCount() {
+        return count;
+    }
+
+    /**
+     * @param percentile percentile between 0 and 100.
+     * @return latency in milliseconds, 0 if nothing recorded.
+     */
+    public double getPercentile(double percentile) {
+        return getPercentile(getSortedLatencies(), percentile);
+    }
+
+    /**
+     * @return formatted p50, p90, p95, p99 and max latency.
+     */
+    public String getSummary() {
+        var sorted = getSortedLatencies();
+        return String.format("p50 %.1f ms, p90 %.1f ms, p95 %.1f ms, p99 %.1f ms, max %.1f ms",
+                getPercentile(sorted, 50), getPercentile(sorted, 90), getPercentile(sorted, 95),
+                getPercentile(sorted, 99), getPercentile(sorted, 100));
+    }
+
+    private synchronized long[] getSortedLatencies() {
+        var sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    private static double getPercentile(long[] sorted, double percentile) {
+
+        if (sorted.length == 0) {
+            return 0;
+        }
+
+        var rank = (int) Math.ceil(percentile / 100 * sorted.length);
+        var index = Math.min(sorted.length - 1, Math.max(0, rank - 1));
+
+        return sorted[index] / (double) TimeUnit.MILLISECONDS.toNanos(1);
+
+    }
+
+}
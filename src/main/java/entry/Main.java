@@ -5,19 +5,53 @@ import ui.App;
 
 import java.awt.Toolkit;
 import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.file.Path;
+import java.util.Set;
 
 
 /**
  * entry.Main.java
  * Java AWT wrapper to start up the JavaFX application.
  * Wrapper is used for hide app icon in the Dock.
+ * With --batch or --serve, images are recognised headless without starting the JavaFX application.
  */
 public class Main {
 
+    private static final String USAGE = "Usage: Image2LaTeX [--batch <dir|glob> [--threads <n>] [--output <dir>]] " +
+            "[--serve <port> [--bind <address>] [--threads <n>] [--queue <n>]]";
+
+    // access token of the gateway, read from the environment to keep it out of the process list
+    private static final String GATEWAY_TOKEN_VARIABLE = "I2L_GATEWAY_TOKEN";
+
+    // options followed by a value
+    private static final Set<String> OPTIONS = Set.of("--batch", "--threads", "--output", "--serve", "--bind", "--queue");
+
+    private static final int DEFAULT_THREAD_COUNT = 4;
+    private static final int DEFAULT_QUEUE_CAPACITY = 64;
+
     /**
      * @param args command line arguments.
      */
-    public static void main(String[] args) throws IOException {
+    public static void main(String[] args) throws IOException, InterruptedException {
+
+        // an option given as the last argument has no value
+        if (args.length > 0 && OPTIONS.contains(args[args.length - 1])) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+
+        var batchSource = getOption(args, "--batch");
+
+        if (batchSource != null) {
+            System.exit(runBatch(args, batchSource));
+        }
+
+        if (getOption(args, "--serve") != null) {
+            runServer(args);
+            return;
+        }
 
         if (IOUtils.isOSMacOSX()) {
             // hide icon in the Dock of macOS
@@ -30,4 +64,121 @@ public class Main {
 
     }
 
+    /**
+     * Headless batch mode.
+     *
+     * @param args        command line arguments.
+     * @param batchSource directory or glob of images.
+     * @return exit status.
+     */
+    private static int runBatch(String[] args, String batchSource) throws IOException, InterruptedException {
+
+        System.setProperty("java.awt.headless", "true");
+
+        var threadCount = getPositiveIntOption(args, "--threads", DEFAULT_THREAD_COUNT);
+        if (threadCount < 1) {
+            System.err.println(USAGE);
+            return 2;
+        }
+
+        var outputOption = getOption(args, "--output");
+        var outputDirectory = outputOption != null ? Path.of(outputOption) : null;
+
+        return new BatchProcessor(threadCount, outputDirectory).run(batchSource) ? 0 : 1;
+
+    }
+
+    /**
+     * Headless gateway server mode, runs until the process is stopped.
+     *
+     * @param args command line arguments.
+     */
+    private static void runServer(String[] args) throws IOException {
+
+        System.setProperty("java.awt.headless", "true");
+
+        var port = getPositiveIntOption(args, "--serve", 0);
+        var threadCount = getPositiveIntOption(args, "--threads", DEFAULT_THREAD_COUNT);
+        var queueCapacity = getPositiveIntOption(args, "--queue", DEFAULT_QUEUE_CAPACITY);
+
+        if (port < 1 || port > 65535 || threadCount < 1 || queueCapacity < 1) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+
+        if (!IOUtils.isAPICredentialConfigValid()) {
+            System.err.println(IOUtils.INVALID_CREDENTIALS_ERROR);
+            System.exit(1);
+        }
+
+        // loopback only unless another address is given
+        var bindOption = getOption(args, "--bind");
+        InetAddress bindAddress;
+        try {
+            bindAddress = bindOption != null ? InetAddress.getByName(bindOption) : InetAddress.getLoopbackAddress();
+        } catch (UnknownHostException e) {
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+
+        var accessToken = System.getenv(GATEWAY_TOKEN_VARIABLE);
+        if (!bindAddress.isLoopbackAddress() && (accessToken == null || accessToken.isBlank())) {
+            System.err.println("Set " + GATEWAY_TOKEN_VARIABLE + " to the access token of the clients to listen on " +
+                    bindAddress.getHostAddress());
+            System.exit(2);
+        }
+
+        var gatewayServer = new GatewayServer(bindAddress, port, threadCount, queueCapacity, accessToken);
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                gatewayServer.stop();
+            } catch (InterruptedException ignored) {
+            }
+        }));
+
+        gatewayServer.start();
+
+    }
+
+    /**
+     * @param args         command line arguments.
+     * @param name         option name.
+     * @param defaultValue value if the option is absent.
+     * @return positive integer value of the option, 0 if invalid.
+     */
+    private static int getPositiveIntOption(String[] args, String name, int defaultValue) {
+
+        var option = getOption(args, name);
+
+        if (option == null) {
+            return defaultValue;
+        }
+
+        try {
+            return Math.max(0, Integer.parseInt(option));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+
+    }
+
+    /**
+     * @param args command line arguments.
+     * @param name option name.
+     * @return value following the option, null if absent.
+     */
+    private static String getOption(String[] args, String name) {
+
+        for (int i = 0; i < args.length - 1; i++) {
+            if (name.equals(args[i])) {
+                return args[i + 1];
+            }
+        }
+
+        return null;
+
+    }
+
 }
@@ -1,5 +1,7 @@
 package io;
 
+import java.util.Objects;
+
 
 /**
  * IO.APICredentialConfig.java
@@ -36,4 +38,25 @@ public class APICredentialConfig {
         return !"".equals(appId) && !"".equals(appKey);
     }
 
+    @Override
+    public boolean equals(Object object) {
+
+        if (this == object) {
+            return true;
+        }
+
+        if (!(object instanceof APICredentialConfig)) {
+            return false;
+        }
+
+        var config = (APICredentialConfig) object;
+        return Objects.equals(appId, config.appId) && Objects.equals(appKey, config.appKey);
+
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(appId, appKey);
+    }
+
 }
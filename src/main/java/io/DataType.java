@@ -0,0 +1,50 @@
+package io;
+
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * IO.DataType.java
+ * Types of the "data" entries returned by Mathpix API.
+ */
+public enum DataType {
+
+    ASCIIMATH("asciimath"),
+    LATEX("latex"),
+    LATEX_STYLED("latex_styled"),
+    MATHML("mathml"),
+    SVG("svg"),
+    TABLE_HTML("table_html"),
+    TSV("tsv");
+
+    private static final Map<String, DataType> TYPE_MAP = new HashMap<>();
+
+    static {
+        for (DataType dataType : values()) {
+            TYPE_MAP.put(dataType.type, dataType);
+        }
+    }
+
+    private final String type;
+
+    DataType(String type) {
+        this.type = type;
+    }
+
+    /**
+     * @return type name used by Mathpix API.
+     */
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * @param type type name used by Mathpix API.
+     * @return corresponding DataType, null if unknown.
+     */
+    public static DataType fromType(String type) {
+        return TYPE_MAP.get(type);
+    }
+
+}
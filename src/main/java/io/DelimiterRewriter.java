@@ -0,0 +1,98 @@
+package io;
+
+/**
+ * IO.DelimiterRewriter.java
+ * Rewrites the \( \) \[ \] delimiters of a recognised result and collapses runs of spaces,
+ * producing the results of several delimiter pairs in a single traversal.
+ */
+class DelimiterRewriter {
+
+    /**
+     * Single-pass equivalent of the chained replacements:
+     * if all text is wrapped, \( and \) are replaced with the delimiters,
+     * otherwise \( and \) become $, and \[ and \] (with an adjacent line break removed) are replaced with the delimiters.
+     * Runs of spaces are collapsed to single spaces, delimiters included.
+     *
+     * @param segmentIndex    index of the result to be rewritten.
+     * @param leftDelimiters  prefix of each output.
+     * @param rightDelimiters postfix of each output.
+     * @return rewritten result of each delimiter pair.
+     */
+    static String[] rewrite(LaTeXSegmentIndex segmentIndex, String[] leftDelimiters, String[] rightDelimiters) {
+
+        var string = segmentIndex.getText();
+        var isTextAllWrapped = segmentIndex.isTextAllWrapped();
+        var count = leftDelimiters.length;
+
+        // replacements of each output indexed by token type
+        var replacements = new String[count][];
+        var builders = new StringBuilder[count];
+
+        for (int i = 0; i < count; i++) {
+
+            var isInline = "$".equals(leftDelimiters[i]);
+
+            if (isTextAllWrapped) {
+                replacements[i] = new String[]{
+                        isInline ? leftDelimiters[i] : leftDelimiters[i] + "\n",
+                        isInline ? rightDelimiters[i] : "\n" + rightDelimiters[i],
+                };
+            } else {
+                // inline delimiters are kept for display math
+                replacements[i] = new String[]{
+                        "$",
+                        "$",
+                        isInline ? "\\[\n" : leftDelimiters[i] + "\n",
+                        isInline ? "\n\\]" : "\n" + rightDelimiters[i],
+                };
+            }
+
+            builders[i] = new StringBuilder(string.length() + 32);
+
+        }
+
+        var position = 0;
+
+        for (int token = 0; token < segmentIndex.getTokenCount(); token++) {
+
+            var tokenType = segmentIndex.getTokenType(token);
+
+            // display delimiters are left as they are in a wrapped result
+            if (isTextAllWrapped && tokenType >= LaTeXSegmentIndex.DISPLAY_OPENING) {
+                continue;
+            }
+
+            var offset = segmentIndex.getTokenOffset(token);
+
+            for (int i = 0; i < count; i++) {
+                append(builders[i], string, position, offset);
+                append(builders[i], replacements[i][tokenType], 0, replacements[i][tokenType].length());
+            }
+
+            position = offset + segmentIndex.getTokenLength(token);
+
+        }
+
+        var results = new String[count];
+        for (int i = 0; i < count; i++) {
+            append(builders[i], string, position, string.length());
+            results[i] = builders[i].toString();
+        }
+
+        return results;
+
+    }
+
+    /**
+     * Append a range of characters, skipping spaces following another space.
+     */
+    private static void append(StringBuilder builder, String string, int start, int end) {
+        for (int i = start; i < end; i++) {
+            var character = string.charAt(i);
+            if (character != ' ' || builder.length() == 0 || builder.charAt(builder.length() - 1) != ' ') {
+                builder.append(character);
+            }
+        }
+    }
+
+}
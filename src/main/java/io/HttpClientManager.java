@@ -0,0 +1,106 @@
+package io;
+
+import javax.net.ssl.SSLContext;
+import java.net.InetSocketAddress;
+import java.net.ProxySelector;
+import java.net.http.HttpClient;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * IO.HttpClientManager.java
+ * Keeps one long-lived HttpClient for the effective API credential and proxy config.
+ * The client, and the keep-alive connection pool it owns, is only rebuilt when the config changes.
+ */
+public class HttpClientManager {
+
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(10);
+
+    private static HttpClient httpClient;
+    private static APICredentialConfig currentCredentialConfig;
+    private static ProxyConfig currentProxyConfig;
+
+    private static final AtomicLong CLIENT_BUILD_COUNT = new AtomicLong();
+    private static final AtomicLong REQUEST_COUNT = new AtomicLong();
+    private static final AtomicLong REUSED_CLIENT_REQUEST_COUNT = new AtomicLong();
+
+    /**
+     * Get the shared HttpClient, rebuild it if the credential or proxy config has been changed.
+     *
+     * @param credentialConfig API credential config of the request.
+     * @param proxyConfig      proxy config of the request, null if the proxy is disabled.
+     * @return shared HttpClient.
+     */
+    public static synchronized HttpClient getHttpClient(APICredentialConfig credentialConfig, ProxyConfig proxyConfig)
+            throws NoSuchAlgorithmException {
+
+        REQUEST_COUNT.incrementAndGet();
+
+        if (httpClient != null && Objects.equals(currentCredentialConfig, credentialConfig) &&
+                Objects.equals(currentProxyConfig, proxyConfig)) {
+            REUSED_CLIENT_REQUEST_COUNT.incrementAndGet();
+            return httpClient;
+        }
+
+        // TLSv1.2 only
+        var sslParameters = SSLContext.getDefault().getDefaultSSLParameters();
+        sslParameters.setProtocols(new String[]{"TLSv1.2"});
+        var httpClientBuilder = HttpClient.newBuilder().sslParameters(sslParameters).connectTimeout(CONNECT_TIMEOUT);
+
+        if (proxyConfig != null) {
+            var inetSocketAddress = new InetSocketAddress(proxyConfig.getHostname(), proxyConfig.getPort());
+            httpClientBuilder.proxy(ProxySelector.of(inetSocketAddress));
+        }
+
+        // the previous client is left to the GC, its idle connections are closed with it
+        httpClient = httpClientBuilder.build();
+        currentCredentialConfig = credentialConfig;
+        currentProxyConfig = proxyConfig;
+        CLIENT_BUILD_COUNT.incrementAndGet();
+
+        return httpClient;
+
+    }
+
+    /**
+     * Drop the shared HttpClient, the next request will build a new one.
+     */
+    public static synchronized void reset() {
+        httpClient = null;
+        currentCredentialConfig = null;
+        currentProxyConfig = null;
+    }
+
+    /**
+     * @return number of HttpClients built.
+     */
+    public static long getClientBuildCount() {
+        return CLIENT_BUILD_COUNT.get();
+    }
+
+    /**
+     * @return number of requests served.
+     */
+    public static long getRequestCount() {
+        return REQUEST_COUNT.get();
+    }
+
+    /**
+     * @return number of requests served by an already built HttpClient and its connection pool.
+     */
+    public static long getReusedClientRequestCount() {
+        return REUSED_CLIENT_REQUEST_COUNT.get();
+    }
+
+    /**
+     * @return formatted pool statistics.
+     */
+    public static String getStatistics() {
+        return String.format("requests: %d, clients built: %d, pooled client reused: %d",
+                getRequestCount(), getClientBuildCount(), getReusedClientRequestCount());
+    }
+
+}
@@ -2,11 +2,11 @@ package io;
 
 import javafx.scene.image.Image;
 
+import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.time.ZoneId;
 import java.util.Date;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -23,9 +23,17 @@ public class IOUtils {
     public static final String NO_IMAGE_FOUND_IN_THE_CLIPBOARD_ERROR = "No image found in the clipboard";
 
     public static final String API_URL = "https://api.mathpix.com/v3/text";
+    public static final String API_URL_PROPERTY = "i2l.api.url";
     public static final String MATHPIX_DASHBOARD_URL = "https://dashboard.mathpix.com/";
     public static final String GITHUB_RELEASES_URL = "https://github.com/blaisewang/img2latex-mathpix/releases";
 
+    /**
+     * @return API URL, overridden by the "i2l.api.url" system property to target a stand-in server.
+     */
+    public static String getAPIUrl() {
+        return System.getProperty(API_URL_PROPERTY, API_URL);
+    }
+
     /**
      * @return if os is macOS.
      */
@@ -80,18 +88,74 @@ public class IOUtils {
      */
     public static Response concurrentCall(Recognition recognition, Image image) {
 
-        var executor = Executors.newSingleThreadExecutor();
+        if (!recognition.setSrcParameters(image)) {
+            return null;
+        }
+
+        return cachedCall(recognition);
+
+    }
+
+    /**
+     * Execute the OCR request in Java concurrent way, with an image already read and cropped.
+     *
+     * @param image pixels to be recognised.
+     * @return recognised result.
+     */
+    public static Response concurrentCall(Recognition recognition, PixelSource image) {
 
-        if (recognition.setSrcParameters(image)) {
-            var result = executor.submit(recognition);
-            try {
-                return result.get();
-            } catch (InterruptedException | ExecutionException e) {
-                return null;
-            }
+        if (!recognition.setSrcParameters(image)) {
+            return null;
         }
 
-        return null;
+        return cachedCall(recognition);
+
+    }
+
+    /**
+     * Execute the OCR request in Java concurrent way, used by the headless modes.
+     *
+     * @param image decoded image to be recognised.
+     * @return recognised result.
+     */
+    public static Response concurrentCall(Recognition recognition, BufferedImage image) {
+
+        if (!recognition.setSrcParameters(image)) {
+            return null;
+        }
+
+        return cachedCall(recognition);
+
+    }
+
+    /**
+     * IO.ResultCache is consulted before any encoding or network work,
+     * identical requests still pending are joined by IO.RequestCoalescer.
+     *
+     * @param recognition recognition with the image set.
+     * @return recognised result.
+     */
+    private static Response cachedCall(Recognition recognition) {
+
+        // the pixels hashed are the ones sent, even if the recognition is given another image meanwhile
+        var image = recognition.getImage();
+        var cacheKey = recognition.getCacheKey(image);
+
+        var cachedResponse = ResultCache.get(cacheKey);
+        if (cachedResponse != null) {
+            return cachedResponse;
+        }
+
+        try {
+            // only the caller sending the request stores the result
+            return RequestCoalescer.call(cacheKey, () -> {
+                var response = recognition.call(image);
+                ResultCache.put(cacheKey, response);
+                return response;
+            });
+        } catch (InterruptedException | ExecutionException e) {
+            return null;
+        }
 
     }
 
@@ -130,72 +194,48 @@ public class IOUtils {
      * @return is text all wrapped.
      */
     public static boolean isTextAllWrapped(String string) {
-
-        if (!string.startsWith("\\(")) {
-            return false;
-        }
-
-        var rIndex = string.indexOf("\\)");
-
-        while (rIndex < string.length() - 2) {
-            var lIndex = string.indexOf("\\(", rIndex);
-            if (rIndex == -1 || lIndex == -1) {
-                return false;
-            }
-            if (string.substring(rIndex + 2, lIndex).trim().length() > 0) {
-                return false;
-            }
-            rIndex = string.indexOf("\\)", rIndex + 1);
-        }
-
-        return true;
-
+        return LaTeXSegmentIndex.of(string).isTextAllWrapped();
     }
 
     /**
-     * Shadow method of formatHelper()
-     *
      * @param string         string to be formatted.
      * @param leftDelimiter  prefix.
      * @param rightDelimiter postfix.
-     * @return formatted string.
+     * @return formatted string with multiple spaces replaced with single spaces.
      */
-    private static String formatHandler(String string, String leftDelimiter, String rightDelimiter) {
-
-        String lDelimiter;
-        String rDelimiter;
-
-        if ("$".equals(leftDelimiter)) {
-            lDelimiter = leftDelimiter;
-            rDelimiter = rightDelimiter;
-        } else {
-            lDelimiter = leftDelimiter + "\n";
-            rDelimiter = "\n" + rightDelimiter;
-        }
-
-        if (isTextAllWrapped(string)) {
-            return string.replace("\\(", lDelimiter).replace("\\)", rDelimiter);
-        }
+    public static String formatHelper(String string, String leftDelimiter, String rightDelimiter) {
+        return DelimiterRewriter.rewrite(LaTeXSegmentIndex.of(string), new String[]{leftDelimiter}, new String[]{rightDelimiter})[0];
+    }
 
-        if ("$".equals(leftDelimiter)) {
-            lDelimiter = "\\[\n";
-            rDelimiter = "\n\\]";
-        }
+    /**
+     * @param option second result formatting option.
+     * @return left and right delimiters of the option.
+     */
+    private static String[] getSecondResultDelimiters(int option) {
 
-        return string.replace("\\(", "$").replace("\\)", "$").
-                replace("\\[\n", "\\[").replace("\n\\]", "\\]").
-                replace("\\[", lDelimiter).replace("\\]", rDelimiter);
+        // default for option 2 and others
+        return switch (option) {
+            case 0 -> new String[]{"\\begin{equation*}", "\\end{equation*}"};
+            case 1 -> new String[]{"\\begin{align*}", "\\end{align*}"};
+            case 3 -> new String[]{"\\[", "\\]"};
+            default -> new String[]{"$$", "$$"};
+        };
 
     }
 
     /**
-     * @param string         string to be formatted.
-     * @param leftDelimiter  prefix.
-     * @param rightDelimiter postfix.
-     * @return formatted string with multiple spaces replaced with single spaces.
+     * @param option third result formatting option.
+     * @return left and right delimiters of the option.
      */
-    public static String formatHelper(String string, String leftDelimiter, String rightDelimiter) {
-        return formatHandler(string, leftDelimiter, rightDelimiter).replaceAll("( )+", " ");
+    private static String[] getThirdResultDelimiters(int option) {
+
+        // default for option 0 and others
+        return switch (option) {
+            case 1 -> new String[]{"\\begin{align}", "\\end{align}"};
+            case 2 -> new String[]{"$", "$"};
+            default -> new String[]{"\\begin{equation}", "\\end{equation}"};
+        };
+
     }
 
     /**
@@ -211,15 +251,10 @@ public class IOUtils {
             return null;
         }
 
-        var option = PreferenceHelper.getSecondResultFormattingOption();
+        var delimiters = getSecondResultDelimiters(PreferenceHelper.getSecondResultFormattingOption());
+
+        return formatHelper(result, delimiters[0], delimiters[1]);
 
-        // default for option 2 and others
-        return switch (option) {
-            case 0 -> formatHelper(result, "\\begin{equation*}", "\\end{equation*}");
-            case 1 -> formatHelper(result, "\\begin{align*}", "\\end{align*}");
-            case 3 -> formatHelper(result, "\\[", "\\]");
-            default -> formatHelper(result, "$$", "$$");
-        };
     }
 
     /**
@@ -235,16 +270,41 @@ public class IOUtils {
             return null;
         }
 
-        var option = PreferenceHelper.getThirdResultFormattingOption();
+        var delimiters = getThirdResultDelimiters(PreferenceHelper.getThirdResultFormattingOption());
 
-        // default for option 0 and others
-        return switch (option) {
-            case 1 -> formatHelper(result, "\\begin{align}", "\\end{align}");
-            case 2 -> formatHelper(result, "$", "$");
-            default -> formatHelper(result, "\\begin{equation}", "\\end{equation}");
-        };
+        return formatHelper(result, delimiters[0], delimiters[1]);
 
     }
 
+    /**
+     * Format the original recognised result with both selected formatting options in a single traversal.
+     *
+     * @param result recognised result.
+     * @return the second and the third formatted results, nulls if the original result is null.
+     */
+    public static String[] resultFormatter(String result) {
+        return resultFormatter(result != null ? LaTeXSegmentIndex.of(result) : null);
+    }
+
+    /**
+     * Format an already indexed result with both selected formatting options, see IO.Response.getSegmentIndex().
+     *
+     * @param segmentIndex index of the recognised result.
+     * @return the second and the third formatted results, nulls if the index is null.
+     */
+    public static String[] resultFormatter(LaTeXSegmentIndex segmentIndex) {
+
+        // return nulls if the original result is null
+        if (segmentIndex == null) {
+            return new String[2];
+        }
+
+        var secondDelimiters = getSecondResultDelimiters(PreferenceHelper.getSecondResultFormattingOption());
+        var thirdDelimiters = getThirdResultDelimiters(PreferenceHelper.getThirdResultFormattingOption());
+
+        return DelimiterRewriter.rewrite(segmentIndex,
+                new String[]{secondDelimiters[0], thirdDelimiters[0]}, new String[]{secondDelimiters[1], thirdDelimiters[1]});
+
+    }
 
 }
@@ -0,0 +1,299 @@
+package io;
+
+import com.google.gson.JsonObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.net.http.HttpRequest;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ObjLongConsumer;
+
+
+/**
+ * IO.ImageBodyPublisher.java
+ * Streams an image as the request body without materialising the whole payload.
+ * The image is encoded to PNG by IO.PNGEncoder on a background thread, in the smallest IO.PNGFormat holding its pixels,
+ * optionally Base64 wrapped, and handed over to the HTTP client in a few fixed-size chunks framed by a prefix and a suffix.
+ */
+public class ImageBodyPublisher {
+
+    private static final String DATA_URI_PREFIX = "data:image/png;base64,";
+
+    private static final int CHUNK_SIZE = 16 * 1024;
+    private static final int MAX_PENDING_CHUNKS = 4;
+
+    private static final ExecutorService ENCODING_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        var thread = new Thread(runnable, "image-body-encoder");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Body of {"src": "data:image/png;base64,...", ...options}.
+     *
+     * @param image       image to be sent.
+     * @param compression PNG compression of the image.
+     * @param quantise    whether near-grey images may be quantised, see IO.PNGFormat.
+     * @param options     JsonObject of the other request parameters.
+     * @param onEncoded   receives the format and the PNG size of each encoding, on the encoding thread.
+     * @return a streaming BodyPublisher.
+     */
+    public static HttpRequest.BodyPublisher ofJson(PixelSource image, PNGCompression compression, boolean quantise,
+                                                   JsonObject options, ObjLongConsumer<PNGFormat> onEncoded) {
+
+        var optionString = options.toString();
+
+        var prefix = "{\"src\":\"" + DATA_URI_PREFIX;
+        // close the "src" string, then continue with the rest of the options object
+        var suffix = options.size() > 0 ? "\"," + optionString.substring(1) : "\"}";
+
+        return of(prefix.getBytes(StandardCharsets.UTF_8), image, compression, quantise, true,
+                suffix.getBytes(StandardCharsets.UTF_8), onEncoded);
+
+    }
+
+    /**
+     * Body of a multipart/form-data request with an "options_json" part and a raw PNG "file" part.
+     *
+     * @param image       image to be sent.
+     * @param compression PNG compression of the image.
+     * @param quantise    whether near-grey images may be quantised, see IO.PNGFormat.
+     * @param options     JsonObject of the other request parameters.
+     * @param boundary    multipart boundary, see newBoundary().
+     * @param onEncoded   receives the format and the PNG size of each encoding, on the encoding thread.
+     * @return a streaming BodyPublisher.
+     */
+    public static HttpRequest.BodyPublisher ofMultipart(PixelSource image, PNGCompression compression, boolean quantise,
+                                                        JsonObject options, String boundary,
+                                                        ObjLongConsumer<PNGFormat> onEncoded) {
+
+        var prefix = "--" + boundary + "\r\n" +
+                "Content-Disposition: form-data; name=\"options_json\"\r\n\r\n" +
+                options.toString() + "\r\n" +
+                "--" + boundary + "\r\n" +
+                "Content-Disposition: form-data; name=\"file\"; filename=\"image.png\"\r\n" +
+                "Content-Type: image/png\r\n\r\n";
+
+        var suffix = "\r\n--" + boundary + "--\r\n";
+
+        return of(prefix.getBytes(StandardCharsets.UTF_8), image, compression, quantise, false,
+                suffix.getBytes(StandardCharsets.UTF_8), onEncoded);
+
+    }
+
+    /**
+     * @return a random multipart boundary.
+     */
+    public static String newBoundary() {
+        return "I2LBoundary" + UUID.randomUUID().toString().replace("-", "");
+    }
+
+    /**
+     * @param prefix        bytes sent before the image.
+     * @param image         image to be sent as PNG.
+     * @param compression   PNG compression of the image.
+     * @param quantise      whether near-grey images may be quantised.
+     * @param base64Encoded whether the PNG should be Base64 encoded.
+     * @param suffix        bytes sent after the image.
+     * @param onEncoded     receives the format and the PNG size of each encoding.
+     * @return a streaming BodyPublisher, re-encodes the image on every subscription.
+     */
+    static HttpRequest.BodyPublisher of(byte[] prefix, PixelSource image, PNGCompression compression, boolean quantise,
+                                        boolean base64Encoded, byte[] suffix, ObjLongConsumer<PNGFormat> onEncoded) {
+        return HttpRequest.BodyPublishers.ofInputStream(() -> new SequenceInputStream(Collections.enumeration(List.of(
+                new ByteArrayInputStream(prefix),
+                new EncodingInputStream(image, compression, quantise, base64Encoded, onEncoded),
+                new ByteArrayInputStream(suffix)
+        ))));
+    }
+
+    /**
+     * InputStream fed by a background PNG encoder through a bounded queue of fixed-size chunks.
+     */
+    private static final class EncodingInputStream extends InputStream {
+
+        // marks the end of the encoded stream
+        private static final byte[] END_OF_STREAM = new byte[0];
+
+        private final BlockingQueue<byte[]> filledChunks = new ArrayBlockingQueue<>(MAX_PENDING_CHUNKS + 1);
+        private final BlockingQueue<byte[]> freeChunks = new ArrayBlockingQueue<>(MAX_PENDING_CHUNKS + 2);
+        private final Future<?> encoder;
+
+        private volatile IOException encodingException;
+        private volatile boolean closed;
+
+        private byte[] chunk;
+        private int chunkLength;
+        private int chunkPosition;
+
+        EncodingInputStream(PixelSource image, PNGCompression compression, boolean quantise, boolean base64Encoded,
+                            ObjLongConsumer<PNGFormat> onEncoded) {
+            encoder = ENCODING_EXECUTOR.submit(() -> encode(image, compression, quantise, base64Encoded, onEncoded));
+        }
+
+        /**
+         * Encoder side, runs on the encoding executor.
+         */
+        private void encode(PixelSource image, PNGCompression compression, boolean quantise, boolean base64Encoded,
+                            ObjLongConsumer<PNGFormat> onEncoded) {
+
+            var chunkOutputStream = new ChunkOutputStream();
+
+            try (var outputStream = base64Encoded ? Base64.getEncoder().wrap(chunkOutputStream) : chunkOutputStream) {
+                // a pass over the pixels choosing the colour type and bit depth
+                var format = PNGFormat.of(image, quantise);
+                onEncoded.accept(format, PNGEncoder.encode(image, format, outputStream, compression));
+            } catch (IOException e) {
+                encodingException = e;
+            } catch (RuntimeException e) {
+                encodingException = new IOException(e);
+            }
+
+            try {
+                enqueue(END_OF_STREAM);
+            } catch (IOException ignored) {
+                // reader has been closed
+            }
+
+        }
+
+        /**
+         * Queue a chunk for the reader, give up once the reader has been closed.
+         */
+        private void enqueue(byte[] filledChunk) throws IOException {
+            try {
+                while (!filledChunks.offer(filledChunk, 100, TimeUnit.MILLISECONDS)) {
+                    if (closed) {
+                        throw new IOException("Image encoding cancelled");
+                    }
+                }
+            } catch (InterruptedException e) {
+                throw new IOException("Image encoding cancelled", e);
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            var bytes = new byte[1];
+            return read(bytes, 0, 1) == -1 ? -1 : bytes[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+
+            if (length == 0) {
+                return 0;
+            }
+
+            if (chunk == END_OF_STREAM) {
+                return -1;
+            }
+
+            if (chunk == null || chunkPosition == chunkLength) {
+
+                // hand the drained chunk back to the encoder
+                if (chunk != null && chunk.length == CHUNK_SIZE) {
+                    freeChunks.offer(chunk);
+                }
+
+                try {
+                    chunk = filledChunks.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                }
+
+                if (chunk == END_OF_STREAM) {
+                    if (encodingException != null) {
+                        throw encodingException;
+                    }
+                    return -1;
+                }
+
+                chunkLength = chunk.length;
+                chunkPosition = 0;
+
+            }
+
+            var count = Math.min(length, chunkLength - chunkPosition);
+            System.arraycopy(chunk, chunkPosition, bytes, offset, count);
+            chunkPosition += count;
+
+            return count;
+
+        }
+
+        @Override
+        public void close() {
+            // stop the encoder if the request has been abandoned
+            closed = true;
+            encoder.cancel(true);
+        }
+
+        /**
+         * Encoder side OutputStream, queues a chunk whenever it is full.
+         */
+        private final class ChunkOutputStream extends OutputStream {
+
+            private byte[] buffer = new byte[CHUNK_SIZE];
+            private int position;
+
+            @Override
+            public void write(int b) throws IOException {
+                if (position == buffer.length) {
+                    flushChunk();
+                }
+                buffer[position++] = (byte) b;
+            }
+
+            @Override
+            public void write(byte[] bytes, int offset, int length) throws IOException {
+                while (length > 0) {
+                    if (position == buffer.length) {
+                        flushChunk();
+                    }
+                    var count = Math.min(length, buffer.length - position);
+                    System.arraycopy(bytes, offset, buffer, position, count);
+                    position += count;
+                    offset += count;
+                    length -= count;
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (position > 0) {
+                    flushChunk();
+                }
+            }
+
+            private void flushChunk() throws IOException {
+
+                // only the last chunk may be partially filled
+                enqueue(position == buffer.length ? buffer : Arrays.copyOf(buffer, position));
+
+                var freeChunk = freeChunks.poll();
+                buffer = freeChunk != null ? freeChunk : new byte[CHUNK_SIZE];
+                position = 0;
+
+            }
+
+        }
+
+    }
+
+}
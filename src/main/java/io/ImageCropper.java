@@ -0,0 +1,234 @@
+package io;
+
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.stream.IntStream;
+
+
+/**
+ * IO.ImageCropper.java
+ * Crops the background margins of an image before upload, keeping a few pixels of padding around the content.
+ * The pixels are copied once into an int array, the content bounds are found from the row and column ink counts,
+ * which are summed over bands of rows in parallel for large images.
+ * A JavaFX image is read once for both its preview and its upload, see ImageCropper.CroppedImage.
+ */
+public class ImageCropper {
+
+    // background kept around the content, in pixels
+    private static final int PADDING = 10;
+
+    // luminance difference from the background counted as ink, above compression noise
+    private static final int INK_CONTRAST = 24;
+
+    // images from 1M pixels have their ink counted in parallel
+    private static final long PARALLEL_PIXEL_COUNT = 1024 * 1024;
+
+    // rows of a parallel band
+    private static final int BAND_HEIGHT = 128;
+
+    /**
+     * Read the image and find its content bounds, slow for large images, not to be called on the FX thread.
+     *
+     * @param image JavaFX image.
+     * @return the cropped image with its bounds, null if its pixels cannot be read.
+     */
+    public static CroppedImage crop(Image image) {
+
+        var pixels = getPixels(image);
+        if (pixels == null) {
+            return null;
+        }
+
+        return crop(pixels, (int) image.getWidth(), (int) image.getHeight());
+
+    }
+
+    /**
+     * @param image decoded image.
+     * @return the cropped image, null if the image is null.
+     */
+    public static PixelSource crop(BufferedImage image) {
+
+        if (image == null) {
+            return null;
+        }
+
+        var width = image.getWidth();
+        var height = image.getHeight();
+
+        return crop(image.getRGB(0, 0, width, height, null, 0, width), width, height).getPixelSource();
+
+    }
+
+    /**
+     * @return pixel source of the content bounds, or of the whole image if it is blank, with the bounds.
+     */
+    private static CroppedImage crop(int[] pixels, int width, int height) {
+
+        var bounds = getContentBounds(pixels, width, height);
+        if (bounds == null) {
+            return new CroppedImage(PixelSource.of(pixels, width, height), null);
+        }
+
+        return new CroppedImage(PixelSource.of(pixels, width, bounds), bounds);
+
+    }
+
+    /**
+     * @return ARGB pixels of the image row by row, read through its PixelReader, null if they cannot be read.
+     */
+    private static int[] getPixels(Image image) {
+
+        var pixelReader = image == null ? null : image.getPixelReader();
+
+        if (pixelReader == null) {
+            return null;
+        }
+
+        var width = (int) image.getWidth();
+        var height = (int) image.getHeight();
+
+        var pixels = new int[width * height];
+        pixelReader.getPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(), pixels, 0, width);
+
+        return pixels;
+
+    }
+
+    /**
+     * @param pixels ARGB pixels, row by row.
+     * @param width  width in pixels.
+     * @param height height in pixels.
+     * @return content bounds with padding, within the image, null if the image is blank.
+     */
+    static Rectangle getContentBounds(int[] pixels, int width, int height) {
+
+        if (width == 0 || height == 0) {
+            return null;
+        }
+
+        var background = ImageDownscaler.getBackgroundLuminance(PixelSource.of(pixels, width, height));
+
+        // ink pixels of each row and of each column
+        var rowInk = new int[height];
+        int[] columnInk;
+
+        if ((long) width * height < PARALLEL_PIXEL_COUNT) {
+            columnInk = countInk(pixels, width, background, 0, height, rowInk);
+        } else {
+            // each band writes its own rows, the column counts of the bands are summed
+            columnInk = IntStream.range(0, (height + BAND_HEIGHT - 1) / BAND_HEIGHT)
+                    .parallel()
+                    .mapToObj(band -> countInk(pixels, width, background, band * BAND_HEIGHT,
+                            Math.min(height, (band + 1) * BAND_HEIGHT), rowInk))
+                    .reduce((counts, otherCounts) -> {
+                        for (int x = 0; x < width; x++) {
+                            counts[x] += otherCounts[x];
+                        }
+                        return counts;
+                    })
+                    .orElseThrow();
+        }
+
+        var top = first(rowInk);
+        if (top < 0) {
+            return null;
+        }
+
+        var bottom = last(rowInk);
+        var left = first(columnInk);
+        var right = last(columnInk);
+
+        var x = Math.max(0, left - PADDING);
+        var y = Math.max(0, top - PADDING);
+
+        return new Rectangle(x, y, Math.min(width, right + 1 + PADDING) - x, Math.min(height, bottom + 1 + PADDING) - y);
+
+    }
+
+    /**
+     * Count the ink pixels of the rows from startY to endY (excluded).
+     *
+     * @return ink pixels of each column within the rows.
+     */
+    private static int[] countInk(int[] pixels, int width, int background, int startY, int endY, int[] rowInk) {
+
+        var columnInk = new int[width];
+
+        for (int y = startY; y < endY; y++) {
+
+            var offset = y * width;
+            var count = 0;
+
+            for (int x = 0; x < width; x++) {
+                if (Math.abs(ImageDownscaler.getLuminance(pixels[offset + x]) - background) > INK_CONTRAST) {
+                    columnInk[x]++;
+                    count++;
+                }
+            }
+
+            rowInk[y] = count;
+
+        }
+
+        return columnInk;
+
+    }
+
+    /**
+     * @return index of the first non-zero count, -1 if none.
+     */
+    private static int first(int[] counts) {
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return index of the last non-zero count, -1 if none.
+     */
+    private static int last(int[] counts) {
+        for (int i = counts.length - 1; i >= 0; i--) {
+            if (counts[i] > 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Pixels of the content to be uploaded, with the bounds of the content shown in the preview.
+     */
+    public static final class CroppedImage {
+
+        private final PixelSource pixelSource;
+        private final Rectangle bounds;
+
+        private CroppedImage(PixelSource pixelSource, Rectangle bounds) {
+            this.pixelSource = pixelSource;
+            this.bounds = bounds;
+        }
+
+        /**
+         * @return pixels of the content bounds, or of the whole image if it is blank.
+         */
+        public PixelSource getPixelSource() {
+            return pixelSource;
+        }
+
+        /**
+         * @return content bounds with padding, null if the image is blank.
+         */
+        public Rectangle getBounds() {
+            return bounds;
+        }
+
+    }
+
+}
@@ -0,0 +1,399 @@
+package io;
+
+import java.util.Arrays;
+
+
+/**
+ * IO.ImageDownscaler.java
+ * Reduces oversized images before upload, so that encoding time and upload size follow the glyph size instead of the screen.
+ * The glyph height is the median height of the connected ink components, found by run-length labelling on a sampled grid.
+ * Images whose glyphs are larger than needed are area averaged down to the target glyph height.
+ */
+public class ImageDownscaler {
+
+    // images up to 1M pixels are uploaded as they are
+    private static final long MIN_PIXEL_COUNT = 1024 * 1024;
+
+    // median glyph height in pixels after downscaling, well above the size the API needs
+    private static final int TARGET_GLYPH_HEIGHT = 32;
+
+    // scales above it are not worth the resampling
+    private static final double MAX_SCALE = 0.75;
+
+    // pixels sampled for the glyph height estimation, about 2M
+    private static final long SAMPLE_COUNT = 2 * 1024 * 1024;
+
+    // luminance difference from the background counted as ink
+    private static final int INK_CONTRAST = 96;
+
+    // fewer glyphs do not give a reliable median
+    private static final int MIN_COMPONENT_COUNT = 3;
+
+    // too many ink runs for a formula, e.g. a photo
+    private static final int MAX_RUN_COUNT = 1024 * 1024;
+
+    /**
+     * @param image image to be uploaded.
+     * @return the downscaled image, or the same image if it is small enough or its glyph height is unknown.
+     */
+    public static PixelSource downscale(PixelSource image) {
+
+        if (image == null || (long) image.getWidth() * image.getHeight() <= MIN_PIXEL_COUNT) {
+            return image;
+        }
+
+        var glyphHeight = getGlyphHeight(image);
+        if (glyphHeight <= 0) {
+            return image;
+        }
+
+        var scale = (double) TARGET_GLYPH_HEIGHT / glyphHeight;
+        if (scale > MAX_SCALE) {
+            return image;
+        }
+
+        var width = Math.max(1, (int) Math.round(image.getWidth() * scale));
+        var height = Math.max(1, (int) Math.round(image.getHeight() * scale));
+
+        return PixelSource.of(resize(image, width, height), width, height);
+
+    }
+
+    /**
+     * Median height of the ink components, without specks, horizontal strokes such as fraction bars, and frames.
+     *
+     * @param image image to be analysed.
+     * @return glyph height in pixels, 0 if unknown.
+     */
+    static int getGlyphHeight(PixelSource image) {
+
+        var width = image.getWidth();
+        var height = image.getHeight();
+
+        // every step-th pixel of every step-th row
+        var step = Math.max(1, (int) Math.sqrt((double) width * height / SAMPLE_COUNT));
+        var sampleWidth = (width + step - 1) / step;
+
+        var background = getBackgroundLuminance(image);
+
+        var components = new Components();
+        var row = new int[width];
+
+        // ink runs of the previous and the current sampled row: start, end (excluded) and label
+        var previousRuns = new int[3 * (sampleWidth / 2 + 1)];
+        var currentRuns = new int[previousRuns.length];
+        var previousRunCount = 0;
+
+        for (int y = 0, sampleY = 0; y < height; y += step, sampleY++) {
+
+            image.getRow(y, row);
+
+            var runCount = 0;
+            var runStart = -1;
+
+            for (int sampleX = 0; sampleX <= sampleWidth; sampleX++) {
+
+                var isInk = sampleX < sampleWidth && Math.abs(getLuminance(row[sampleX * step]) - background) > INK_CONTRAST;
+
+                if (isInk && runStart < 0) {
+                    runStart = sampleX;
+                } else if (!isInk && runStart >= 0) {
+
+                    if (components.size() == MAX_RUN_COUNT) {
+                        return 0;
+                    }
+
+                    var label = components.add(runStart, sampleX - 1, sampleY);
+
+                    // 8-connected with the runs of the previous row
+                    for (int i = 0; i < previousRunCount; i++) {
+                        if (previousRuns[3 * i] <= sampleX && previousRuns[3 * i + 1] >= runStart) {
+                            components.union(label, previousRuns[3 * i + 2]);
+                        }
+                    }
+
+                    currentRuns[3 * runCount] = runStart;
+                    currentRuns[3 * runCount + 1] = sampleX;
+                    currentRuns[3 * runCount + 2] = label;
+                    runCount++;
+                    runStart = -1;
+
+                }
+
+            }
+
+            var runs = previousRuns;
+            previousRuns = currentRuns;
+            currentRuns = runs;
+            previousRunCount = runCount;
+
+        }
+
+        var heights = components.getHeights(sampleWidth, (height + step - 1) / step);
+        if (heights.length < MIN_COMPONENT_COUNT) {
+            return 0;
+        }
+
+        Arrays.sort(heights);
+
+        return heights[heights.length / 2] * step;
+
+    }
+
+    /**
+     * @return median luminance of the border pixels.
+     */
+    static int getBackgroundLuminance(PixelSource image) {
+
+        var width = image.getWidth();
+        var height = image.getHeight();
+        var row = new int[width];
+
+        var histogram = new int[256];
+        var count = 0;
+
+        for (int y : new int[]{0, height - 1}) {
+            image.getRow(y, row);
+            for (int x = 0; x < width; x++) {
+                histogram[getLuminance(row[x])]++;
+            }
+            count += width;
+        }
+
+        for (int y = 1; y < height - 1; y++) {
+            image.getRow(y, row);
+            histogram[getLuminance(row[0])]++;
+            histogram[getLuminance(row[width - 1])]++;
+            count += 2;
+        }
+
+        var luminance = 0;
+        var sum = histogram[0];
+        while (sum <= count / 2) {
+            sum += histogram[++luminance];
+        }
+
+        return luminance;
+
+    }
+
+    /**
+     * @return luminance of the pixel composited on white.
+     */
+    static int getLuminance(int pixel) {
+        var alpha = pixel >>> 24;
+        var luminance = (((pixel >>> 16) & 0xff) * 77 + ((pixel >>> 8) & 0xff) * 150 + (pixel & 0xff) * 29) >>> 8;
+        return 255 - alpha * (255 - luminance) / 255;
+    }
+
+    /**
+     * Area averaging in premultiplied alpha, each source pixel contributes by its exact overlap with the target pixels.
+     * Coordinates are in units of 1 / (width * targetWidth) so that the overlaps, and the weighted sums, are integers.
+     *
+     * @return ARGB pixels of the resized image, row by row.
+     */
+    private static int[] resize(PixelSource image, int targetWidth, int targetHeight) {
+
+        var width = image.getWidth();
+        var height = image.getHeight();
+
+        var pixels = new int[targetWidth * targetHeight];
+        var row = new int[width];
+        var rowSum = new long[4 * targetWidth];
+        var sum = new long[4 * targetWidth];
+        var area = (double) width * height;
+
+        var targetY = 0;
+        // end of the current target row, a source row spans targetHeight units, a target row height units
+        var targetRowEnd = (long) height;
+
+        for (int y = 0; y < height && targetY < targetHeight; y++) {
+
+            image.getRow(y, row);
+            sumRow(row, width, targetWidth, rowSum);
+
+            var start = (long) y * targetHeight;
+            var end = start + targetHeight;
+
+            while (start < end && targetY < targetHeight) {
+
+                var overlapEnd = Math.min(end, targetRowEnd);
+                var weight = overlapEnd - start;
+                for (int i = 0; i < sum.length; i++) {
+                    sum[i] += weight * rowSum[i];
+                }
+                start = overlapEnd;
+
+                if (overlapEnd == targetRowEnd) {
+                    writeRow(sum, area, pixels, targetY * targetWidth, targetWidth);
+                    Arrays.fill(sum, 0);
+                    targetY++;
+                    targetRowEnd += height;
+                }
+
+            }
+
+        }
+
+        return pixels;
+
+    }
+
+    /**
+     * Sum a source row horizontally into the target columns, premultiplied and weighted by the overlaps.
+     */
+    private static void sumRow(int[] row, int width, int targetWidth, long[] rowSum) {
+
+        Arrays.fill(rowSum, 0);
+
+        var targetX = 0;
+        var targetColumnEnd = (long) width;
+
+        for (int x = 0; x < width; x++) {
+
+            var pixel = row[x];
+            var alpha = pixel >>> 24;
+            var red = ((pixel >>> 16) & 0xff) * alpha;
+            var green = ((pixel >>> 8) & 0xff) * alpha;
+            var blue = (pixel & 0xff) * alpha;
+
+            var start = (long) x * targetWidth;
+            var end = start + targetWidth;
+
+            while (start < end && targetX < targetWidth) {
+
+                var overlapEnd = Math.min(end, targetColumnEnd);
+                var weight = overlapEnd - start;
+                var i = 4 * targetX;
+                rowSum[i] += weight * alpha;
+                rowSum[i + 1] += weight * red;
+                rowSum[i + 2] += weight * green;
+                rowSum[i + 3] += weight * blue;
+                start = overlapEnd;
+
+                if (overlapEnd == targetColumnEnd) {
+                    targetX++;
+                    targetColumnEnd += width;
+                }
+
+            }
+
+        }
+
+    }
+
+    /**
+     * Normalise the sums of a target row and convert them back to non-premultiplied ARGB.
+     */
+    private static void writeRow(long[] sum, double area, int[] pixels, int offset, int targetWidth) {
+
+        for (int x = 0; x < targetWidth; x++) {
+
+            var i = 4 * x;
+            var alpha = sum[i] / area;
+
+            if (alpha <= 0) {
+                pixels[offset + x] = 0;
+                continue;
+            }
+
+            var red = (int) Math.round(sum[i + 1] / area / alpha);
+            var green = (int) Math.round(sum[i + 2] / area / alpha);
+            var blue = (int) Math.round(sum[i + 3] / area / alpha);
+
+            pixels[offset + x] = (int) Math.round(alpha) << 24 | Math.min(red, 255) << 16 | Math.min(green, 255) << 8 | Math.min(blue, 255);
+
+        }
+
+    }
+
+    /**
+     * Union-find of the ink runs with the vertical and horizontal extent of each set.
+     */
+    private static final class Components {
+
+        private int[] parents = new int[1024];
+        private int[] bounds = new int[4 * 1024];
+        private int size;
+
+        private int size() {
+            return size;
+        }
+
+        /**
+         * @return label of a new run.
+         */
+        private int add(int startX, int endX, int y) {
+
+            if (size == parents.length) {
+                parents = Arrays.copyOf(parents, 2 * size);
+                bounds = Arrays.copyOf(bounds, 8 * size);
+            }
+
+            parents[size] = size;
+            bounds[4 * size] = startX;
+            bounds[4 * size + 1] = endX;
+            bounds[4 * size + 2] = y;
+            bounds[4 * size + 3] = y;
+
+            return size++;
+
+        }
+
+        private int find(int label) {
+            while (parents[label] != label) {
+                // path halving
+                parents[label] = parents[parents[label]];
+                label = parents[label];
+            }
+            return label;
+        }
+
+        private void union(int label, int otherLabel) {
+
+            var root = find(label);
+            var otherRoot = find(otherLabel);
+
+            if (root == otherRoot) {
+                return;
+            }
+
+            parents[otherRoot] = root;
+            bounds[4 * root] = Math.min(bounds[4 * root], bounds[4 * otherRoot]);
+            bounds[4 * root + 1] = Math.max(bounds[4 * root + 1], bounds[4 * otherRoot + 1]);
+            bounds[4 * root + 2] = Math.min(bounds[4 * root + 2], bounds[4 * otherRoot + 2]);
+            bounds[4 * root + 3] = Math.max(bounds[4 * root + 3], bounds[4 * otherRoot + 3]);
+
+        }
+
+        /**
+         * @return heights of the glyph-like components: at least 2 high, not much wider than high, within half the image.
+         */
+        private int[] getHeights(int width, int height) {
+
+            var heights = new int[size];
+            var count = 0;
+
+            for (int label = 0; label < size; label++) {
+
+                if (parents[label] != label) {
+                    continue;
+                }
+
+                var componentWidth = bounds[4 * label + 1] - bounds[4 * label] + 1;
+                var componentHeight = bounds[4 * label + 3] - bounds[4 * label + 2] + 1;
+
+                if (componentHeight >= 2 && componentWidth <= 3 * componentHeight &&
+                        componentWidth <= width / 2 && componentHeight <= height / 2) {
+                    heights[count++] = componentHeight;
+                }
+
+            }
+
+            return Arrays.copyOf(heights, count);
+
+        }
+
+    }
+
+}
@@ -0,0 +1,240 @@
+package io;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * IO.LaTeXSegmentIndex.java
+ * Immutable index of a recognised result, built by a single scan:
+ * the offsets of the \( \) \[ \] delimiters, the text, inline math and display math segments,
+ * and whether the result is wrapped by \( \) only.
+ * Computed once per IO.Response and shared by the formatters and the rendering.
+ */
+public class LaTeXSegmentIndex {
+
+    static final int INLINE_OPENING = 0;
+    static final int INLINE_CLOSING = 1;
+    static final int DISPLAY_OPENING = 2;
+    static final int DISPLAY_CLOSING = 3;
+
+    private final String text;
+
+    // delimiter tokens, display delimiters include an adjacent line break
+    private final int tokenCount;
+    private final int[] tokenTypes;
+    private final int[] tokenOffsets;
+    private final int[] tokenLengths;
+
+    private final List<Segment> segments;
+    private final boolean isTextAllWrapped;
+
+    private LaTeXSegmentIndex(String text) {
+
+        this.text = text;
+
+        var length = text.length();
+        var types = new int[8];
+        var offsets = new int[8];
+        var lengths = new int[8];
+        var count = 0;
+
+        var segmentList = new ArrayList<Segment>();
+        var textStart = 0;
+        var openingType = -1;
+        var openingOffset = 0;
+        var openingLength = 0;
+
+        // wrapped check, every \) but the last one must be followed by blanks and \(
+        var isWrapped = text.startsWith("\\(");
+        var isClosingPending = false;
+        var lastClosingOffset = -1;
+
+        var index = 0;
+
+        while (index < length) {
+
+            var character = text.charAt(index);
+            var next = index + 1 < length ? text.charAt(index + 1) : 0;
+
+            var token = -1;
+            var tokenLength = 2;
+
+            if (character == '\\') {
+                if (next == '(') {
+                    token = INLINE_OPENING;
+                } else if (next == ')') {
+                    token = INLINE_CLOSING;
+                } else if (next == '[') {
+                    token = DISPLAY_OPENING;
+                    if (index + 2 < length && text.charAt(index + 2) == '\n') {
+                        tokenLength = 3;
+                    }
+                } else if (next == ']') {
+                    token = DISPLAY_CLOSING;
+                }
+            } else if (character == '\n' && next == '\\' && index + 2 < length && text.charAt(index + 2) == ']') {
+                token = DISPLAY_CLOSING;
+                tokenLength = 3;
+            }
+
+            if (token < 0) {
+                // String.trim() treats all characters up to the space as blank
+                if (isClosingPending && character > ' ') {
+                    isWrapped = false;
+                }
+                index++;
+                continue;
+            }
+
+            if (count == types.length) {
+                types = Arrays.copyOf(types, count * 2);
+                offsets = Arrays.copyOf(offsets, count * 2);
+                lengths = Arrays.copyOf(lengths, count * 2);
+            }
+            types[count] = token;
+            offsets[count] = index;
+            lengths[count] = tokenLength;
+            count++;
+
+            if (token == INLINE_OPENING) {
+                isClosingPending = false;
+            } else if (token == INLINE_CLOSING) {
+                if (isClosingPending) {
+                    isWrapped = false;
+                }
+                isClosingPending = true;
+                lastClosingOffset = index;
+            } else if (isClosingPending) {
+                isWrapped = false;
+            }
+
+            if (openingType < 0 && (token == INLINE_OPENING || token == DISPLAY_OPENING)) {
+                openingType = token;
+                openingOffset = index;
+                openingLength = tokenLength;
+            } else if (openingType >= 0 && token == openingType + 1) {
+                if (openingOffset > textStart) {
+                    segmentList.add(new Segment(SegmentType.TEXT, textStart, openingOffset, textStart, openingOffset));
+                }
+                segmentList.add(new Segment(openingType == INLINE_OPENING ? SegmentType.INLINE_MATH : SegmentType.DISPLAY_MATH,
+                        openingOffset, index + tokenLength, openingOffset + openingLength, index));
+                textStart = index + tokenLength;
+                openingType = -1;
+            }
+
+            index += tokenLength;
+
+        }
+
+        // unclosed math is kept as text
+        if (textStart < length) {
+            segmentList.add(new Segment(SegmentType.TEXT, textStart, length, textStart, length));
+        }
+
+        this.tokenCount = count;
+        this.tokenTypes = types;
+        this.tokenOffsets = offsets;
+        this.tokenLengths = lengths;
+        this.segments = Collections.unmodifiableList(segmentList);
+        this.isTextAllWrapped = isWrapped && lastClosingOffset == length - 2;
+
+    }
+
+    /**
+     * @param text recognised result.
+     * @return index of the result.
+     */
+    public static LaTeXSegmentIndex of(String text) {
+        return new LaTeXSegmentIndex(text);
+    }
+
+    /**
+     * @return indexed result.
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * @return whether all text is wrapped by \( \), i.e. only blanks between the inline math.
+     */
+    public boolean isTextAllWrapped() {
+        return isTextAllWrapped;
+    }
+
+    /**
+     * @return text, inline math and display math segments in order.
+     */
+    public List<Segment> getSegments() {
+        return segments;
+    }
+
+    int getTokenCount() {
+        return tokenCount;
+    }
+
+    int getTokenType(int index) {
+        return tokenTypes[index];
+    }
+
+    int getTokenOffset(int index) {
+        return tokenOffsets[index];
+    }
+
+    int getTokenLength(int index) {
+        return tokenLengths[index];
+    }
+
+    /**
+     * Kind of a segment.
+     */
+    public enum SegmentType {
+        TEXT,
+        INLINE_MATH,
+        DISPLAY_MATH
+    }
+
+    /**
+     * A range of the result, math segments include their delimiters.
+     */
+    public final class Segment {
+
+        private final SegmentType type;
+        private final int start;
+        private final int end;
+        private final int contentStart;
+        private final int contentEnd;
+
+        private Segment(SegmentType type, int start, int end, int contentStart, int contentEnd) {
+            this.type = type;
+            this.start = start;
+            this.end = end;
+            this.contentStart = contentStart;
+            this.contentEnd = contentEnd;
+        }
+
+        public SegmentType getType() {
+            return type;
+        }
+
+        public int getStart() {
+            return start;
+        }
+
+        public int getEnd() {
+            return end;
+        }
+
+        /**
+         * @return the segment without its delimiters.
+         */
+        public String getContent() {
+            return text.substring(contentStart, contentEnd);
+        }
+
+    }
+
+}
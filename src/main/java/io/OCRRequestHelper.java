@@ -1,83 +1,158 @@
 package io;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonObject;
-
-import javax.net.ssl.SSLContext;
-import java.net.InetSocketAddress;
-import java.net.ProxySelector;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.security.NoSuchAlgorithmException;
 import java.time.Duration;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 
 /**
  * IO.OCRRequestHelper.java
  * handles the OCR request with HTTP post.
- * Parsing the result as a IO.Response object.
+ * Decoding the response body stream as a IO.Response object.
  */
 public class OCRRequestHelper {
 
+    // status codes of the endpoint refusing the multipart transport itself,
+    // 400 and 422 are left out as they also report a bad image or bad options, which a Json retry would not fix
+    private static final Set<Integer> MULTIPART_REJECTION_STATUS_CODES = Set.of(405, 415);
+
+    // stop trying multipart uploads once the endpoint has refused the transport
+    private static final AtomicBoolean MULTIPART_REJECTED = new AtomicBoolean(false);
+
     /**
-     * Send the request with Json parameters to Mathpix API.
-     * Parsing the result as a IO.Response object.
+     * Send the request with the recognition parameters to Mathpix API.
+     * Multipart uploads fall back to the Json request only if the endpoint refuses the transport (405 or 415),
+     * other errors are decoded as they are, without a second billed request.
+     * Decoding the response body stream as a IO.Response object.
      *
-     * @param parameters JsonObject to send as the request parameters.
+     * @param recognition recognition with the parameters to be sent.
+     * @param image       image to be sent.
      * @return a IO.Response object.
      */
-    public static Response getResult(JsonObject parameters) throws NoSuchAlgorithmException {
-
-        String appId;
-        String appKey;
+    public static Response getResult(Recognition recognition, PixelSource image) throws NoSuchAlgorithmException {
 
         var APICredentialConfig = PreferenceHelper.getAPICredentialConfig();
 
-        if (APICredentialConfig.isValid()) {
-            appId = APICredentialConfig.getAppId();
-            appKey = APICredentialConfig.getAppKey();
-        } else {
+        if (!APICredentialConfig.isValid()) {
             // early return
             return new Response(IOUtils.INVALID_CREDENTIALS_ERROR);
         }
 
-        // TLSv1.2 only
-        var sslParameters = SSLContext.getDefault().getDefaultSSLParameters();
-        sslParameters.setProtocols(new String[]{"TLSv1.2"});
-        var httpClientBuilder = HttpClient.newBuilder().sslParameters(sslParameters);
+        ProxyConfig proxyConfig = null;
 
         if (PreferenceHelper.getProxyEnableOption()) {
             // proxy enabled
-            var proxyConfig = PreferenceHelper.getProxyConfig();
-            if (proxyConfig.isValid()) {
-                var inetSocketAddress = new InetSocketAddress(proxyConfig.getHostname(), proxyConfig.getPort());
-                httpClientBuilder.proxy(ProxySelector.of(inetSocketAddress));
-            } else {
+            proxyConfig = PreferenceHelper.getProxyConfig();
+            if (!proxyConfig.isValid()) {
                 return new Response(IOUtils.INVALID_PROXY_CONFIG_ERROR);
             }
         }
 
-        var httpClient = httpClientBuilder.build();
+        // shared client, connections are kept alive between requests
+        var httpClient = HttpClientManager.getHttpClient(APICredentialConfig, proxyConfig);
+        var apiUrl = IOUtils.getAPIUrl();
 
-        // request body
-        var requestBody = HttpRequest.BodyPublishers.ofString(parameters.toString());
-        // wait up to 30 seconds
-        var httpRequest = HttpRequest.newBuilder().uri(URI.create(IOUtils.API_URL)).
-                headers("app_id", appId, "app_key", appKey, "Content-type", "application/json").
-                POST(requestBody).timeout(Duration.ofSeconds(30)).build();
+        try {
 
-        var completableFuture = httpClient.
-                sendAsync(httpRequest, HttpResponse.BodyHandlers.ofString()).thenApply(HttpResponse::body);
+            if (recognition.getUploadMode() == UploadMode.MULTIPART && !MULTIPART_REJECTED.get()) {
 
-        try {
-            return new Gson().fromJson(completableFuture.get(), Response.class);
-        } catch (RuntimeException | InterruptedException | ExecutionException e) {
+                var boundary = ImageBodyPublisher.newBoundary();
+                var httpResponse = send(httpClient, apiUrl, APICredentialConfig, recognition.getMultipartRequestBody(image, boundary),
+                        "multipart/form-data; boundary=" + boundary);
+
+                if (!MULTIPART_REJECTION_STATUS_CODES.contains(httpResponse.statusCode())) {
+                    updateUsageCount(apiUrl);
+                    return ResponseTypeAdapter.decode(httpResponse.body());
+                }
+
+                // discard the rejection and resend as Json, the rejection is not counted as usage
+                httpResponse.body().close();
+                MULTIPART_REJECTED.set(true);
+
+            }
+
+            var httpResponse = send(httpClient, apiUrl, APICredentialConfig, recognition.getJsonRequestBody(image), "application/json");
+            updateUsageCount(apiUrl);
+            return ResponseTypeAdapter.decode(httpResponse.body());
+
+        } catch (RuntimeException | IOException | InterruptedException | ExecutionException e) {
             return new Response(e.getMessage());
         }
 
     }
 
+    /**
+     * Resolve the API host and open a connection to it ahead of the first request,
+     * the connection is kept alive in the pool of the shared HttpClient.
+     * Nothing is sent if the credential or proxy config is invalid, the HEAD request is not counted as usage.
+     *
+     * @return status code of the response, -1 if no request has been sent.
+     */
+    public static int preconnect() throws NoSuchAlgorithmException, IOException, InterruptedException {
+
+        var APICredentialConfig = PreferenceHelper.getAPICredentialConfig();
+
+        if (!APICredentialConfig.isValid()) {
+            return -1;
+        }
+
+        ProxyConfig proxyConfig = null;
+
+        if (PreferenceHelper.getProxyEnableOption()) {
+            proxyConfig = PreferenceHelper.getProxyConfig();
+            if (!proxyConfig.isValid()) {
+                return -1;
+            }
+        }
+
+        var httpClient = HttpClientManager.getHttpClient(APICredentialConfig, proxyConfig);
+
+        // without credentials, only the connection and the TLS handshake are of interest
+        var httpRequest = HttpRequest.newBuilder().uri(URI.create(IOUtils.getAPIUrl())).
+                method("HEAD", HttpRequest.BodyPublishers.noBody()).timeout(Duration.ofSeconds(10)).build();
+
+        return httpClient.send(httpRequest, HttpResponse.BodyHandlers.discarding()).statusCode();
+
+    }
+
+    /**
+     * Send a POST request to Mathpix API, wait up to 30 seconds.
+     *
+     * @param httpClient       HttpClient to be used.
+     * @param apiUrl           URL of the endpoint.
+     * @param credentialConfig API credentials.
+     * @param requestBody      request body.
+     * @param contentType      content type of the request body.
+     * @return HTTP response with the body as an unread stream.
+     */
+    private static HttpResponse<InputStream> send(HttpClient httpClient, String apiUrl, APICredentialConfig credentialConfig,
+                                                  HttpRequest.BodyPublisher requestBody, String contentType)
+            throws InterruptedException, ExecutionException {
+
+        var httpRequest = HttpRequest.newBuilder().uri(URI.create(apiUrl)).
+                headers("app_id", credentialConfig.getAppId(), "app_key", credentialConfig.getAppKey(),
+                        "Content-type", contentType).
+                POST(requestBody).timeout(Duration.ofSeconds(30)).build();
+
+        return httpClient.sendAsync(httpRequest, HttpResponse.BodyHandlers.ofInputStream()).get();
+
+    }
+
+    /**
+     * Update the usage count once per recognition, for the response decoded from Mathpix API.
+     */
+    private static void updateUsageCount(String apiUrl) {
+        if (IOUtils.API_URL.equals(apiUrl)) {
+            PreferenceHelper.updateUsageCount();
+        }
+    }
+
 }
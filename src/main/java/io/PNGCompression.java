@@ -0,0 +1,60 @@
+package io;
+
+import java.util.zip.Deflater;
+
+
+/**
+ * IO.PNGCompression.java
+ * Deflate settings of the uploaded PNG, see IO.PNGEncoder.
+ * The levels below 4 do not use lazy matching, their outputs are about twice as large on formula screenshots.
+ */
+public enum PNGCompression {
+
+    /**
+     * Fastest encoding, larger uploads.
+     */
+    FAST("Fast", 1, Deflater.DEFAULT_STRATEGY),
+
+    /**
+     * Same level as the JDK PNG writer.
+     */
+    DEFAULT("Default", 4, Deflater.DEFAULT_STRATEGY),
+
+    /**
+     * Smallest uploads, slowest encoding.
+     */
+    SMALL("Small", 9, Deflater.DEFAULT_STRATEGY);
+
+    private final String name;
+    private final int level;
+    private final int strategy;
+
+    PNGCompression(String name, int level, int strategy) {
+        this.name = name;
+        this.level = level;
+        this.strategy = strategy;
+    }
+
+    /**
+     * @return Deflater compression level.
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * @return Deflater compression strategy.
+     */
+    public int getStrategy() {
+        return strategy;
+    }
+
+    /**
+     * @return name displayed in the preferences panel.
+     */
+    @Override
+    public String toString() {
+        return name;
+    }
+
+}
@@ -0,0 +1,317 @@
+package io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+
+/**
+ * IO.PNGEncoder.java
+ * Encodes the pixels of an IO.PixelSource as a PNG in an IO.PNGFormat, reading and deflating it row by row.
+ * Rows of 8-bit colour and alpha formats are filtered adaptively by IO.PNGFilter, see PNGFormat.isFiltered().
+ * The Deflater and the row buffers of each thread are reused across images.
+ * Large images are deflated in blocks on a fork-join pool, see IO.ParallelDeflater.
+ */
+public class PNGEncoder {
+
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+
+    private static final byte[] IHDR = "IHDR".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PLTE = "PLTE".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TRNS = "tRNS".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] IDAT = "IDAT".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] IEND = "IEND".getBytes(StandardCharsets.US_ASCII);
+
+    // compressed bytes per IDAT chunk
+    private static final int IDAT_SIZE = 32 * 1024;
+
+    // from 2M pixels, about a 1920x1080 screenshot, the blocks are deflated in parallel
+    private static final long PARALLEL_PIXEL_COUNT = 2 * 1024 * 1024;
+
+    private static final ThreadLocal<EncoderState> ENCODER_STATE = ThreadLocal.withInitial(EncoderState::new);
+
+    /**
+     * Write the image as PNG to the output stream, in parallel on the common pool if the image is large.
+     *
+     * @param image        image to be encoded.
+     * @param format       colour type and bit depth, see PNGFormat.of().
+     * @param outputStream destination, not closed.
+     * @param compression  deflate level and strategy.
+     * @return number of bytes written.
+     */
+    public static long encode(PixelSource image, PNGFormat format, OutputStream outputStream, PNGCompression compression)
+            throws IOException {
+
+        var pool = ForkJoinPool.commonPool();
+
+        if ((long) image.getWidth() * image.getHeight() >= PARALLEL_PIXEL_COUNT && pool.getParallelism() > 1) {
+            return encode(image, format, outputStream, compression, pool);
+        }
+
+        return encodeSequentially(image, format, outputStream, compression);
+
+    }
+
+    /**
+     * Write the image as PNG to the output stream, its blocks of rows are deflated concurrently into a single IDAT chunk.
+     *
+     * @param image        image to be encoded, its rows are read concurrently.
+     * @param format       colour type and bit depth, see PNGFormat.of().
+     * @param outputStream destination, not closed.
+     * @param compression  deflate level and strategy.
+     * @param pool         pool deflating the blocks.
+     * @return number of bytes written.
+     */
+    public static long encode(PixelSource image, PNGFormat format, OutputStream outputStream, PNGCompression compression,
+                              ForkJoinPool pool) throws IOException {
+
+        checkSize(image);
+
+        var state = ENCODER_STATE.get();
+        var stream = ParallelDeflater.deflate(image, format, compression, pool);
+
+        state.writtenLength = 0;
+        writeHeader(state, outputStream, image.getWidth(), image.getHeight(), format);
+        writeChunk(state, outputStream, IDAT, stream);
+        writeChunk(state, outputStream, IEND, state.idat, 0);
+
+        return state.writtenLength;
+
+    }
+
+    /**
+     * Write the image as PNG to the output stream, deflating it row by row on the current thread.
+     *
+     * @param image        image to be encoded.
+     * @param format       colour type and bit depth, see PNGFormat.of().
+     * @param outputStream destination, not closed.
+     * @param compression  deflate level and strategy.
+     * @return number of bytes written.
+     */
+    public static long encodeSequentially(PixelSource image, PNGFormat format, OutputStream outputStream,
+                                          PNGCompression compression) throws IOException {
+
+        checkSize(image);
+
+        var width = image.getWidth();
+        var height = image.getHeight();
+        var rowLength = format.getRowLength(width);
+
+        var state = ENCODER_STATE.get();
+        state.prepare(width, rowLength, compression);
+        var row = state.row;
+        var previousRow = state.previousRow;
+        var isFiltered = format.isFiltered();
+        var bytesPerPixel = format.getBytesPerPixel();
+
+        state.writtenLength = 0;
+        writeHeader(state, outputStream, width, height, format);
+
+        var deflater = state.deflater;
+        var idatLength = 0;
+
+        for (int y = 0; y < height; y++) {
+
+            image.getRow(y, state.pixels);
+            format.toRow(state.pixels, width, row, 0);
+
+            if (isFiltered) {
+                PNGFilter.filterRow(row, 0, y > 0 ? previousRow : null, 0, rowLength, bytesPerPixel, state.filteredRow, 0);
+                deflater.setInput(state.filteredRow, 0, rowLength);
+            } else {
+                deflater.setInput(row, 0, rowLength);
+            }
+            while (!deflater.needsInput()) {
+                idatLength = deflate(state, outputStream, idatLength);
+            }
+
+            // the unfiltered row is the previous row of the next one
+            var swap = previousRow;
+            previousRow = row;
+            row = swap;
+
+        }
+
+        deflater.finish();
+        while (!deflater.finished()) {
+            idatLength = deflate(state, outputStream, idatLength);
+        }
+
+        if (idatLength > 0) {
+            writeChunk(state, outputStream, IDAT, state.idat, idatLength);
+        }
+
+        writeChunk(state, outputStream, IEND, state.idat, 0);
+
+        return state.writtenLength;
+
+    }
+
+    private static void checkSize(PixelSource image) throws IOException {
+        if (image.getWidth() <= 0 || image.getHeight() <= 0) {
+            throw new IOException("Empty image");
+        }
+    }
+
+    /**
+     * Deflate into the IDAT buffer, writing it as a chunk once full.
+     *
+     * @return length of the IDAT buffer.
+     */
+    private static int deflate(EncoderState state, OutputStream outputStream, int idatLength) throws IOException {
+
+        idatLength += state.deflater.deflate(state.idat, idatLength, IDAT_SIZE - idatLength);
+
+        if (idatLength == IDAT_SIZE) {
+            writeChunk(state, outputStream, IDAT, state.idat, IDAT_SIZE);
+            return 0;
+        }
+
+        return idatLength;
+
+    }
+
+    /**
+     * Write the signature, the IHDR chunk of a non-interlaced image, then the palette chunks of the format if any.
+     */
+    private static void writeHeader(EncoderState state, OutputStream outputStream, int width, int height, PNGFormat format)
+            throws IOException {
+
+        outputStream.write(SIGNATURE);
+        state.writtenLength += SIGNATURE.length;
+
+        var header = state.header;
+        putInt(header, 0, width);
+        putInt(header, 4, height);
+        // bit depth, colour type, compression, filter and interlace methods
+        header[8] = (byte) format.getBitDepth();
+        header[9] = (byte) format.getColourType();
+        header[10] = 0;
+        header[11] = 0;
+        header[12] = 0;
+
+        writeChunk(state, outputStream, IHDR, header, 13);
+
+        var palette = format.getPalette();
+        if (palette != null) {
+            writeChunk(state, outputStream, PLTE, palette, palette.length);
+        }
+
+        var transparency = format.getTransparency();
+        if (transparency != null) {
+            writeChunk(state, outputStream, TRNS, transparency, transparency.length);
+        }
+
+    }
+
+    /**
+     * Write a chunk: length, type, data and the CRC of type and data.
+     */
+    private static void writeChunk(EncoderState state, OutputStream outputStream, byte[] type, byte[] data, int length)
+            throws IOException {
+
+        var crc32 = state.crc32;
+        crc32.reset();
+        crc32.update(type);
+        crc32.update(data, 0, length);
+
+        var integer = state.integer;
+        putInt(integer, 0, length);
+        outputStream.write(integer);
+        outputStream.write(type);
+        outputStream.write(data, 0, length);
+        putInt(integer, 0, (int) crc32.getValue());
+        outputStream.write(integer);
+
+        state.writtenLength += 12 + length;
+
+    }
+
+    /**
+     * Write a chunk of several parts.
+     */
+    private static void writeChunk(EncoderState state, OutputStream outputStream, byte[] type, List<ByteBuffer> data)
+            throws IOException {
+
+        var length = 0L;
+        for (ByteBuffer part : data) {
+            length += part.remaining();
+        }
+
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Chunk too large");
+        }
+
+        var crc32 = state.crc32;
+        crc32.reset();
+        crc32.update(type);
+
+        var integer = state.integer;
+        putInt(integer, 0, (int) length);
+        outputStream.write(integer);
+        outputStream.write(type);
+        for (ByteBuffer part : data) {
+            crc32.update(part.duplicate());
+            outputStream.write(part.array(), part.arrayOffset() + part.position(), part.remaining());
+        }
+        putInt(integer, 0, (int) crc32.getValue());
+        outputStream.write(integer);
+
+        state.writtenLength += 12 + length;
+
+    }
+
+    private static void putInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    /**
+     * Deflater and buffers of a thread, grown to the widest image encoded so far.
+     */
+    private static final class EncoderState {
+
+        final Deflater deflater = new Deflater();
+        final CRC32 crc32 = new CRC32();
+
+        final byte[] idat = new byte[IDAT_SIZE];
+        final byte[] header = new byte[13];
+        final byte[] integer = new byte[4];
+
+        int[] pixels = new int[0];
+        byte[] row = new byte[1];
+        byte[] previousRow = new byte[1];
+        byte[] filteredRow = new byte[1];
+
+        long writtenLength;
+
+        /**
+         * Grow the buffers and reset the Deflater before an image.
+         */
+        void prepare(int width, int rowLength, PNGCompression compression) {
+
+            if (pixels.length < width) {
+                pixels = new int[width];
+            }
+            if (row.length < rowLength) {
+                row = new byte[rowLength];
+                previousRow = new byte[rowLength];
+                filteredRow = new byte[rowLength];
+            }
+
+            deflater.reset();
+            deflater.setLevel(compression.getLevel());
+            deflater.setStrategy(compression.getStrategy());
+
+        }
+
+    }
+
+}
@@ -0,0 +1,100 @@
+package io;
+
+
+/**
+ * IO.PNGFilter.java
+ * Adaptive PNG row filtering of 8-bit images, the heuristic of the RowFilter of the JDK PNG writer:
+ * each row gets the filter whose output has the smallest sum of absolute values, taken as signed bytes.
+ * A row is filtered from its last byte to its first one, so that it can be filtered in place
+ * while the row above it is still unfiltered.
+ */
+class PNGFilter {
+
+    // PNG filter types
+    private static final int NONE = 0;
+    private static final int SUB = 1;
+    private static final int UP = 2;
+    private static final int AVERAGE = 3;
+    private static final int PAETH = 4;
+
+    /**
+     * Choose and apply the filter of a row.
+     *
+     * @param row            unfiltered row, filter type byte first.
+     * @param offset         index of the filter type byte of the row.
+     * @param previous       unfiltered row above, null for the first row.
+     * @param previousOffset index of the filter type byte of the row above.
+     * @param rowLength      length of the row with its filter type byte.
+     * @param bytesPerPixel  distance in bytes to the corresponding byte of the pixel on the left.
+     * @param filtered       destination, may be the row itself at the same offset.
+     * @param filteredOffset index of the filter type byte in the destination.
+     */
+    static void filterRow(byte[] row, int offset, byte[] previous, int previousOffset, int rowLength, int bytesPerPixel,
+                          byte[] filtered, int filteredOffset) {
+
+        var sums = new long[5];
+
+        // sums of the absolute filtered values of every filter type
+        for (int i = 1; i < rowLength; i++) {
+
+            var current = row[offset + i] & 0xff;
+            var left = i > bytesPerPixel ? row[offset + i - bytesPerPixel] & 0xff : 0;
+            var up = previous != null ? previous[previousOffset + i] & 0xff : 0;
+            var upLeft = previous != null && i > bytesPerPixel ? previous[previousOffset + i - bytesPerPixel] & 0xff : 0;
+
+            sums[NONE] += Math.abs((byte) current);
+            sums[SUB] += Math.abs((byte) (current - left));
+            sums[UP] += Math.abs((byte) (current - up));
+            sums[AVERAGE] += Math.abs((byte) (current - ((left + up) >>> 1)));
+            sums[PAETH] += Math.abs((byte) (current - paeth(left, up, upLeft)));
+
+        }
+
+        // the lower filter type wins a tie
+        var filterType = NONE;
+        for (int type = SUB; type <= PAETH; type++) {
+            if (sums[type] < sums[filterType]) {
+                filterType = type;
+            }
+        }
+
+        for (int i = rowLength - 1; i > 0; i--) {
+
+            var current = row[offset + i] & 0xff;
+            var left = i > bytesPerPixel ? row[offset + i - bytesPerPixel] & 0xff : 0;
+            var up = previous != null ? previous[previousOffset + i] & 0xff : 0;
+            var upLeft = previous != null && i > bytesPerPixel ? previous[previousOffset + i - bytesPerPixel] & 0xff : 0;
+
+            filtered[filteredOffset + i] = (byte) switch (filterType) {
+                case SUB -> current - left;
+                case UP -> current - up;
+                case AVERAGE -> current - ((left + up) >>> 1);
+                case PAETH -> current - paeth(left, up, upLeft);
+                default -> current;
+            };
+
+        }
+
+        filtered[filteredOffset] = (byte) filterType;
+
+    }
+
+    /**
+     * @return the neighbour closest to left + up - upLeft, left first, then up, on ties.
+     */
+    private static int paeth(int left, int up, int upLeft) {
+
+        var estimate = left + up - upLeft;
+        var leftDistance = Math.abs(estimate - left);
+        var upDistance = Math.abs(estimate - up);
+        var upLeftDistance = Math.abs(estimate - upLeft);
+
+        if (leftDistance <= upDistance && leftDistance <= upLeftDistance) {
+            return left;
+        }
+
+        return upDistance <= upLeftDistance ? up : upLeft;
+
+    }
+
+}
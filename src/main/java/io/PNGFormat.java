@@ -0,0 +1,423 @@
+package io;
+
+import java.util.Arrays;
+
+
+/**
+ * IO.PNGFormat.java
+ * Colour type and bit depth of an encoded PNG, chosen from the pixels of the image by of().
+ * Formula screenshots are mostly black on white with anti-aliased edges: they are written as greyscale,
+ * or indexed with a palette, at the smallest bit depth holding their pixels, instead of 32-bit RGBA.
+ * Quantisation rounds near-grey images to 16 grey levels, changing each channel by at most 12 in 255.
+ */
+public final class PNGFormat {
+
+    // PNG colour types
+    private static final int GREY = 0;
+    private static final int RGB = 2;
+    private static final int INDEXED = 3;
+    private static final int GREY_ALPHA = 4;
+    private static final int RGBA = 6;
+
+    // filter type of unfiltered rows, filtered formats get theirs from IO.PNGFilter
+    private static final byte FILTER_NONE = 0;
+
+    private static final int MAX_PALETTE_SIZE = 256;
+
+    // largest difference between the channels of a pixel quantised as grey, the grey level is their mean
+    private static final int MAX_GREY_SPREAD = 6;
+
+    // bit depth of quantised greys, levels are multiples of 17, at most 8 away from the mean
+    private static final int QUANTISED_GREY_DEPTH = 4;
+
+    /**
+     * Unreduced format, 8-bit RGBA.
+     */
+    public static final PNGFormat RGBA_8 = new PNGFormat(RGBA, 8, null, false);
+
+    private final int colourType;
+    private final int bitDepth;
+    private final ColourTable palette;
+    private final boolean isQuantised;
+
+    private PNGFormat(int colourType, int bitDepth, ColourTable palette, boolean isQuantised) {
+        this.colourType = colourType;
+        this.bitDepth = bitDepth;
+        this.palette = palette;
+        this.isQuantised = isQuantised;
+    }
+
+    /**
+     * Read the image once and choose the format with the fewest bits per pixel,
+     * lossless formats are preferred to quantised greys of the same size.
+     *
+     * @param image    image to be encoded.
+     * @param quantise whether near-grey images may be quantised.
+     * @return format of the image.
+     */
+    public static PNGFormat of(PixelSource image, boolean quantise) {
+
+        var width = image.getWidth();
+        var height = image.getHeight();
+        var pixels = new int[width];
+
+        var isOpaque = true;
+        var isGrey = true;
+        var isNearGrey = quantise;
+        // grey levels representable at 1, 2 and 4 bits: multiples of 255, 85 and 17
+        var greyLevelMask = 0b111;
+
+        var colours = new ColourTable();
+        var isPaletteFull = false;
+        var lastColour = 0;
+        var hasLastColour = false;
+
+        for (int y = 0; y < height; y++) {
+
+            image.getRow(y, pixels);
+
+            for (int x = 0; x < width; x++) {
+
+                var pixel = pixels[x];
+
+                // runs of the same colour are only checked once
+                if (hasLastColour && pixel == lastColour) {
+                    continue;
+                }
+                lastColour = pixel;
+                hasLastColour = true;
+
+                var red = (pixel >>> 16) & 0xff;
+                var green = (pixel >>> 8) & 0xff;
+                var blue = pixel & 0xff;
+
+                isOpaque &= pixel >>> 24 == 0xff;
+
+                if (isGrey) {
+                    if (red == green && green == blue) {
+                        greyLevelMask &= (red % 255 == 0 ? 0b001 : 0) | (red % 85 == 0 ? 0b010 : 0) | (red % 17 == 0 ? 0b100 : 0);
+                    } else {
+                        isGrey = false;
+                    }
+                }
+
+                if (isNearGrey) {
+                    isNearGrey = Math.max(red, Math.max(green, blue)) - Math.min(red, Math.min(green, blue)) <= MAX_GREY_SPREAD;
+                }
+
+                if (!isPaletteFull && colours.indexOf(pixel) < 0) {
+                    isPaletteFull = colours.size() == MAX_PALETTE_SIZE;
+                    if (!isPaletteFull) {
+                        colours.add(pixel);
+                    }
+                }
+
+            }
+
+            if (!isOpaque && !isGrey && isPaletteFull) {
+                // only RGBA is left
+                break;
+            }
+
+        }
+
+        // later candidates win ties, lossless greys before palettes before quantised greys
+        var format = RGBA_8;
+
+        if (isOpaque) {
+            format = smaller(format, new PNGFormat(RGB, 8, null, false));
+        }
+        if (isGrey && !isOpaque) {
+            format = smaller(format, new PNGFormat(GREY_ALPHA, 8, null, false));
+        }
+        if (isOpaque && isNearGrey) {
+            format = smaller(format, new PNGFormat(GREY, QUANTISED_GREY_DEPTH, null, true));
+        }
+        if (!isPaletteFull) {
+            var size = colours.size();
+            format = smaller(format, new PNGFormat(INDEXED, size <= 2 ? 1 : size <= 4 ? 2 : size <= 16 ? 4 : 8, colours, false));
+        }
+        if (isGrey && isOpaque) {
+            var depth = (greyLevelMask & 0b001) != 0 ? 1 : (greyLevelMask & 0b010) != 0 ? 2 : (greyLevelMask & 0b100) != 0 ? 4 : 8;
+            format = smaller(format, new PNGFormat(GREY, depth, null, false));
+        }
+
+        return format;
+
+    }
+
+    /**
+     * @return the candidate if it has fewer or as many bits per pixel as the current format.
+     */
+    private static PNGFormat smaller(PNGFormat format, PNGFormat candidate) {
+        return candidate.getBitsPerPixel() <= format.getBitsPerPixel() ? candidate : format;
+    }
+
+    /**
+     * @return PNG colour type.
+     */
+    int getColourType() {
+        return colourType;
+    }
+
+    /**
+     * @return bits per sample, or per palette index.
+     */
+    int getBitDepth() {
+        return bitDepth;
+    }
+
+    /**
+     * @return whether pixel values have been rounded.
+     */
+    public boolean isQuantised() {
+        return isQuantised;
+    }
+
+    /**
+     * @return bits of a pixel in the image data.
+     */
+    public int getBitsPerPixel() {
+        return switch (colourType) {
+            case RGB -> 3 * bitDepth;
+            case GREY_ALPHA -> 2 * bitDepth;
+            case RGBA -> 4 * bitDepth;
+            default -> bitDepth;
+        };
+    }
+
+    /**
+     * @return whether rows are filtered adaptively by IO.PNGFilter, only 8-bit colour and alpha samples are.
+     * Palette indices and packed samples are left unfiltered, the differences of indices do not predict anything
+     * and the filters work on whole bytes, anti-aliased formulas in 8-bit grey also deflate smaller unfiltered.
+     */
+    boolean isFiltered() {
+        return bitDepth == 8 && (colourType == RGB || colourType == GREY_ALPHA || colourType == RGBA);
+    }
+
+    /**
+     * @return bytes of a pixel, at least 1, the distance to the left neighbour used by the filters.
+     */
+    int getBytesPerPixel() {
+        return Math.max(1, getBitsPerPixel() / 8);
+    }
+
+    /**
+     * @return length of an unfiltered row with its filter type byte.
+     */
+    public int getRowLength(int width) {
+        return (int) (((long) width * getBitsPerPixel() + 7) / 8) + 1;
+    }
+
+    /**
+     * @return uncompressed image data not sent compared with RGBA, in bytes.
+     */
+    public long getBytesSaved(int width, int height) {
+        return (long) height * (RGBA_8.getRowLength(width) - getRowLength(width));
+    }
+
+    /**
+     * @return PLTE chunk data, null without palette.
+     */
+    byte[] getPalette() {
+
+        if (palette == null) {
+            return null;
+        }
+
+        var colours = palette.getColours();
+        var bytes = new byte[colours.length * 3];
+        for (int i = 0; i < colours.length; i++) {
+            bytes[3 * i] = (byte) (colours[i] >>> 16);
+            bytes[3 * i + 1] = (byte) (colours[i] >>> 8);
+            bytes[3 * i + 2] = (byte) colours[i];
+        }
+
+        return bytes;
+
+    }
+
+    /**
+     * @return tRNS chunk data, alpha of the palette entries up to the last translucent one, null if all are opaque.
+     */
+    byte[] getTransparency() {
+
+        if (palette == null) {
+            return null;
+        }
+
+        var colours = palette.getColours();
+        var length = colours.length;
+        while (length > 0 && colours[length - 1] >>> 24 == 0xff) {
+            length--;
+        }
+
+        if (length == 0) {
+            return null;
+        }
+
+        var bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) (colours[i] >>> 24);
+        }
+
+        return bytes;
+
+    }
+
+    /**
+     * Write an unfiltered row: the filter type byte, then the ARGB pixels in this format.
+     * Samples of less than 8 bits are packed from the most significant bit, the last byte is padded with zeros.
+     *
+     * @param pixels ARGB pixels of the row.
+     * @param width  number of pixels.
+     * @param row    destination.
+     * @param offset index of the filter type byte in the destination.
+     */
+    void toRow(int[] pixels, int width, byte[] row, int offset) {
+
+        row[offset] = FILTER_NONE;
+
+        var i = offset + 1;
+
+        switch (colourType) {
+            case RGBA -> {
+                for (int x = 0; x < width; x++, i += 4) {
+                    var pixel = pixels[x];
+                    row[i] = (byte) (pixel >>> 16);
+                    row[i + 1] = (byte) (pixel >>> 8);
+                    row[i + 2] = (byte) pixel;
+                    row[i + 3] = (byte) (pixel >>> 24);
+                }
+            }
+            case RGB -> {
+                for (int x = 0; x < width; x++, i += 3) {
+                    var pixel = pixels[x];
+                    row[i] = (byte) (pixel >>> 16);
+                    row[i + 1] = (byte) (pixel >>> 8);
+                    row[i + 2] = (byte) pixel;
+                }
+            }
+            case GREY_ALPHA -> {
+                for (int x = 0; x < width; x++, i += 2) {
+                    var pixel = pixels[x];
+                    row[i] = (byte) pixel;
+                    row[i + 1] = (byte) (pixel >>> 24);
+                }
+            }
+            default -> {
+                // greys and palette indices, packed
+                var maxSample = (1 << bitDepth) - 1;
+                var packed = 0;
+                var bitCount = 0;
+                var lastPixel = 0;
+                var lastSample = -1;
+                for (int x = 0; x < width; x++) {
+                    var pixel = pixels[x];
+                    if (lastSample < 0 || pixel != lastPixel) {
+                        lastPixel = pixel;
+                        lastSample = colourType == INDEXED ? palette.indexOf(pixel) : toGrey(pixel, maxSample);
+                    }
+                    packed = packed << bitDepth | lastSample;
+                    bitCount += bitDepth;
+                    if (bitCount == 8) {
+                        row[i++] = (byte) packed;
+                        packed = 0;
+                        bitCount = 0;
+                    }
+                }
+                if (bitCount > 0) {
+                    row[i] = (byte) (packed << (8 - bitCount));
+                }
+            }
+        }
+
+    }
+
+    /**
+     * @return grey sample of the pixel, the mean of its channels rounded to the bit depth.
+     */
+    private int toGrey(int pixel, int maxSample) {
+
+        var level = isQuantised ? (((pixel >>> 16) & 0xff) + ((pixel >>> 8) & 0xff) + (pixel & 0xff) + 1) / 3 : pixel & 0xff;
+
+        return maxSample == 0xff ? level : (level * maxSample + 127) / 255;
+
+    }
+
+    /**
+     * @return e.g. "grey 4-bit", "indexed 8-bit" or "RGBA 8-bit".
+     */
+    @Override
+    public String toString() {
+
+        var name = switch (colourType) {
+            case GREY -> "grey";
+            case RGB -> "RGB";
+            case INDEXED -> "indexed";
+            case GREY_ALPHA -> "grey-alpha";
+            default -> "RGBA";
+        };
+
+        return name + " " + bitDepth + "-bit" + (isQuantised ? " quantised" : "");
+
+    }
+
+    /**
+     * Colours of a palette in order of appearance, looked up by open addressing.
+     */
+    private static final class ColourTable {
+
+        // twice the palette size, a power of 2
+        private static final int CAPACITY = 2 * MAX_PALETTE_SIZE;
+
+        private final int[] keys = new int[CAPACITY];
+        private final short[] indices = new short[CAPACITY];
+        private final int[] colours = new int[MAX_PALETTE_SIZE];
+
+        private int size;
+
+        private ColourTable() {
+            Arrays.fill(indices, (short) -1);
+        }
+
+        private int size() {
+            return size;
+        }
+
+        /**
+         * @return palette index of the colour, -1 if absent.
+         */
+        private int indexOf(int colour) {
+            for (int slot = getSlot(colour); indices[slot] >= 0; slot = (slot + 1) & (CAPACITY - 1)) {
+                if (keys[slot] == colour) {
+                    return indices[slot];
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Add an absent colour, the palette must not be full.
+         */
+        private void add(int colour) {
+            var slot = getSlot(colour);
+            while (indices[slot] >= 0) {
+                slot = (slot + 1) & (CAPACITY - 1);
+            }
+            keys[slot] = colour;
+            indices[slot] = (short) size;
+            colours[size++] = colour;
+        }
+
+        private int[] getColours() {
+            return Arrays.copyOf(colours, size);
+        }
+
+        private static int getSlot(int colour) {
+            return (colour * 0x9e3779b9) >>> (32 - Integer.numberOfTrailingZeros(CAPACITY));
+        }
+
+    }
+
+}
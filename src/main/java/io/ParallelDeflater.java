@@ -0,0 +1,243 @@
+package io;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.Adler32;
+import java.util.zip.Deflater;
+
+
+/**
+ * IO.ParallelDeflater.java
+ * Deflates the rows of an image as a single zlib stream, compressing blocks of rows concurrently as pigz does.
+ * Each block is raw deflated with the preceding 32 KiB as dictionary and ends with a sync flush on a byte boundary,
+ * so the blocks concatenate into one deflate stream, the Adler-32 checksums of the blocks are combined.
+ */
+class ParallelDeflater {
+
+    // deflate window size
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+
+    // uncompressed bytes per block
+    private static final int BLOCK_SIZE = 256 * 1024;
+
+    private static final int ADLER_BASE = 65521;
+
+    private static final ThreadLocal<BlockState> BLOCK_STATE = ThreadLocal.withInitial(BlockState::new);
+
+    /**
+     * @param image       image to be deflated, its rows are read concurrently.
+     * @param format      format of the rows.
+     * @param compression deflate level and strategy.
+     * @param pool        pool compressing the blocks.
+     * @return zlib stream: header, compressed blocks and Adler-32 trailer.
+     */
+    static List<ByteBuffer> deflate(PixelSource image, PNGFormat format, PNGCompression compression, ForkJoinPool pool) {
+
+        var height = image.getHeight();
+        var rowLength = format.getRowLength(image.getWidth());
+        var rowsPerBlock = Math.max(1, BLOCK_SIZE / rowLength);
+
+        var tasks = new ArrayList<ForkJoinTask<Block>>();
+        for (int firstRow = 0; firstRow < height; firstRow += rowsPerBlock) {
+            var blockFirstRow = firstRow;
+            var blockLastRow = Math.min(height, firstRow + rowsPerBlock);
+            tasks.add(pool.submit(() -> deflateBlock(image, format, compression, blockFirstRow, blockLastRow, blockLastRow == height)));
+        }
+
+        var stream = new ArrayList<ByteBuffer>(tasks.size() + 2);
+        stream.add(ByteBuffer.wrap(getHeader(compression.getLevel())));
+
+        var adler = 1;
+        try {
+            for (ForkJoinTask<Block> task : tasks) {
+                var block = task.join();
+                stream.add(ByteBuffer.wrap(block.data, 0, block.length));
+                adler = combineAdler(adler, block.adler, block.inputLength);
+            }
+        } catch (RuntimeException e) {
+            tasks.forEach(task -> task.cancel(false));
+            throw e;
+        }
+
+        stream.add(ByteBuffer.allocate(4).putInt(adler).flip());
+
+        return stream;
+
+    }
+
+    /**
+     * Deflate the rows from the first row (included) to the last row (excluded).
+     */
+    private static Block deflateBlock(PixelSource image, PNGFormat format, PNGCompression compression, int firstRow, int lastRow,
+                                      boolean isLast) {
+
+        var width = image.getWidth();
+        var rowLength = format.getRowLength(width);
+
+        // the rows preceding the block are read again as dictionary, so the blocks are independent,
+        // filtered formats read one more row above the dictionary to filter its first row
+        var dictionaryRows = Math.min(firstRow, (DICTIONARY_SIZE + rowLength - 1) / rowLength);
+        var dictionaryLength = Math.min(DICTIONARY_SIZE, dictionaryRows * rowLength);
+        var isFiltered = format.isFiltered();
+        var aboveRows = isFiltered && firstRow > dictionaryRows ? 1 : 0;
+        var inputOffset = (aboveRows + dictionaryRows) * rowLength;
+        var inputLength = (lastRow - firstRow) * rowLength;
+
+        var state = BLOCK_STATE.get();
+        var rows = state.getRows(inputOffset + inputLength);
+        var pixels = state.getPixels(width);
+
+        for (int y = firstRow - dictionaryRows - aboveRows, offset = 0; y < lastRow; y++, offset += rowLength) {
+            image.getRow(y, pixels);
+            format.toRow(pixels, width, rows, offset);
+        }
+
+        if (isFiltered) {
+            // in place from the last row, the row above is still unfiltered, the first row of the image has none
+            var bytesPerPixel = format.getBytesPerPixel();
+            for (int i = aboveRows + dictionaryRows + lastRow - firstRow - 1; i >= aboveRows; i--) {
+                var offset = i * rowLength;
+                PNGFilter.filterRow(rows, offset, i > 0 ? rows : null, offset - rowLength, rowLength, bytesPerPixel, rows, offset);
+            }
+        }
+
+        var adler32 = state.adler32;
+        adler32.reset();
+        adler32.update(rows, inputOffset, inputLength);
+
+        var deflater = state.deflater;
+        deflater.reset();
+        deflater.setLevel(compression.getLevel());
+        deflater.setStrategy(compression.getStrategy());
+        if (dictionaryLength > 0) {
+            deflater.setDictionary(rows, inputOffset - dictionaryLength, dictionaryLength);
+        }
+        deflater.setInput(rows, inputOffset, inputLength);
+
+        var data = new byte[inputLength / 8 + 1024];
+        var length = 0;
+
+        if (isLast) {
+            // the final block of the stream
+            deflater.finish();
+            while (!deflater.finished()) {
+                if (length == data.length) {
+                    data = Arrays.copyOf(data, data.length * 2);
+                }
+                length += deflater.deflate(data, length, data.length - length);
+            }
+        } else {
+            // flushed until the input is consumed and the output buffer is no longer filled up,
+            // a call applying a new level may consume nothing
+            do {
+                if (length == data.length) {
+                    data = Arrays.copyOf(data, data.length * 2);
+                }
+                length += deflater.deflate(data, length, data.length - length, Deflater.SYNC_FLUSH);
+            } while (!deflater.needsInput() || length == data.length);
+        }
+
+        return new Block(data, length, (int) adler32.getValue(), inputLength);
+
+    }
+
+    /**
+     * @return zlib header of a deflate stream with a 32 KiB window.
+     */
+    private static byte[] getHeader(int level) {
+
+        var compressionMethod = 0x78;
+        var levelFlag = level < 2 ? 0 : level < 6 ? 1 : level == 6 ? 2 : 3;
+        var flags = levelFlag << 6;
+        // header check bits, the header is a multiple of 31
+        flags += 31 - ((compressionMethod << 8 | flags) % 31);
+
+        return new byte[]{(byte) compressionMethod, (byte) flags};
+
+    }
+
+    /**
+     * Same as adler32_combine() of zlib.
+     *
+     * @param adler1  checksum of the first sequence.
+     * @param adler2  checksum of the second sequence.
+     * @param length2 length of the second sequence.
+     * @return checksum of the concatenation.
+     */
+    static int combineAdler(int adler1, int adler2, long length2) {
+
+        var remainder = (int) (length2 % ADLER_BASE);
+        long sum1 = adler1 & 0xffff;
+        long sum2 = (remainder * sum1) % ADLER_BASE;
+
+        sum1 += (adler2 & 0xffff) + ADLER_BASE - 1;
+        sum2 += (adler1 >>> 16) + (adler2 >>> 16) + ADLER_BASE - remainder;
+
+        if (sum1 >= ADLER_BASE) {
+            sum1 -= ADLER_BASE;
+        }
+        if (sum1 >= ADLER_BASE) {
+            sum1 -= ADLER_BASE;
+        }
+        if (sum2 >= (long) ADLER_BASE << 1) {
+            sum2 -= (long) ADLER_BASE << 1;
+        }
+        if (sum2 >= ADLER_BASE) {
+            sum2 -= ADLER_BASE;
+        }
+
+        return (int) (sum1 | (sum2 << 16));
+
+    }
+
+    /**
+     * Compressed block with the checksum of its input.
+     */
+    private static final class Block {
+
+        private final byte[] data;
+        private final int length;
+        private final int adler;
+        private final int inputLength;
+
+        private Block(byte[] data, int length, int adler, int inputLength) {
+            this.data = data;
+            this.length = length;
+            this.adler = adler;
+            this.inputLength = inputLength;
+        }
+
+    }
+
+    /**
+     * Raw Deflater and buffers of a pool thread.
+     */
+    private static final class BlockState {
+
+        private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        private final Adler32 adler32 = new Adler32();
+
+        private int[] pixels = new int[0];
+        private byte[] rows = new byte[0];
+
+        private int[] getPixels(int width) {
+            if (pixels.length < width) {
+                pixels = new int[width];
+            }
+            return pixels;
+        }
+
+        private byte[] getRows(int length) {
+            if (rows.length < length) {
+                rows = new byte[length];
+            }
+            return rows;
+        }
+
+    }
+
+}
@@ -0,0 +1,101 @@
+package io;
+
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelReader;
+
+
+/**
+ * IO.PerceptualHash.java
+ * 64-bit difference hash (dHash) of an image.
+ * The image is downscaled to a 9 * 8 grayscale grid, each bit tells whether a cell is brighter than its right neighbour,
+ * so slightly different crops or zoom levels of the same formula get hashes within a small Hamming distance.
+ */
+public class PerceptualHash {
+
+    private static final int GRID_WIDTH = 9;
+    private static final int GRID_HEIGHT = 8;
+
+    // pixels sampled along each axis of a grid cell
+    private static final int SAMPLES_PER_CELL = 8;
+
+    /**
+     * @param image image to be hashed.
+     * @return dHash of the image.
+     */
+    public static long dHash(Image image) {
+
+        var pixelReader = image.getPixelReader();
+        var width = (int) image.getWidth();
+        var height = (int) image.getHeight();
+
+        if (pixelReader == null || width == 0 || height == 0) {
+            return 0;
+        }
+
+        var grid = new double[GRID_HEIGHT][GRID_WIDTH];
+
+        for (int row = 0; row < GRID_HEIGHT; row++) {
+            var y0 = row * height / GRID_HEIGHT;
+            var y1 = Math.max(y0 + 1, (row + 1) * height / GRID_HEIGHT);
+            for (int column = 0; column < GRID_WIDTH; column++) {
+                var x0 = column * width / GRID_WIDTH;
+                var x1 = Math.max(x0 + 1, (column + 1) * width / GRID_WIDTH);
+                grid[row][column] = getMeanLuminance(pixelReader, x0, Math.min(x1, width), y0, Math.min(y1, height));
+            }
+        }
+
+        var hash = 0L;
+
+        for (int row = 0; row < GRID_HEIGHT; row++) {
+            for (int column = 0; column < GRID_WIDTH - 1; column++) {
+                hash <<= 1;
+                if (grid[row][column] > grid[row][column + 1]) {
+                    hash |= 1;
+                }
+            }
+        }
+
+        return hash;
+
+    }
+
+    /**
+     * @return number of different bits.
+     */
+    public static int distance(long hash1, long hash2) {
+        return Long.bitCount(hash1 ^ hash2);
+    }
+
+    /**
+     * @return similarity between 0 and 1.
+     */
+    public static double similarity(long hash1, long hash2) {
+        return 1 - distance(hash1, hash2) / 64.0;
+    }
+
+    /**
+     * Mean luminance of a cell, sampled on a sparse grid, transparent pixels are treated as white.
+     */
+    private static double getMeanLuminance(PixelReader pixelReader, int x0, int x1, int y0, int y1) {
+
+        var xStep = Math.max(1, (x1 - x0) / SAMPLES_PER_CELL);
+        var yStep = Math.max(1, (y1 - y0) / SAMPLES_PER_CELL);
+
+        var sum = 0.0;
+        var count = 0;
+
+        for (int y = y0; y < y1; y += yStep) {
+            for (int x = x0; x < x1; x += xStep) {
+                var argb = pixelReader.getArgb(x, y);
+                var alpha = (argb >>> 24) / 255.0;
+                var luminance = 0.299 * ((argb >> 16) & 0xFF) + 0.587 * ((argb >> 8) & 0xFF) + 0.114 * (argb & 0xFF);
+                sum += alpha * luminance + (1 - alpha) * 255;
+                count++;
+            }
+        }
+
+        return sum / count;
+
+    }
+
+}
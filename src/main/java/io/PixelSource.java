@@ -0,0 +1,151 @@
+package io;
+
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+
+/**
+ * IO.PixelSource.java
+ * Read-only row access to the non-premultiplied ARGB pixels of an image.
+ * A JavaFX image is read through its PixelReader, without converting it to a BufferedImage first.
+ * Rows may be read concurrently.
+ */
+public interface PixelSource {
+
+    /**
+     * @return width in pixels.
+     */
+    int getWidth();
+
+    /**
+     * @return height in pixels.
+     */
+    int getHeight();
+
+    /**
+     * Read a row of pixels.
+     *
+     * @param y   row index.
+     * @param row destination of at least getWidth() ARGB pixels.
+     */
+    void getRow(int y, int[] row);
+
+    /**
+     * @param image JavaFX image.
+     * @return pixel source reading the image, null if its pixels cannot be read.
+     */
+    static PixelSource of(Image image) {
+
+        var pixelReader = image == null ? null : image.getPixelReader();
+
+        if (pixelReader == null) {
+            return null;
+        }
+
+        var width = (int) image.getWidth();
+        var height = (int) image.getHeight();
+
+        return new PixelSource() {
+
+            @Override
+            public int getWidth() {
+                return width;
+            }
+
+            @Override
+            public int getHeight() {
+                return height;
+            }
+
+            @Override
+            public void getRow(int y, int[] row) {
+                pixelReader.getPixels(0, y, width, 1, PixelFormat.getIntArgbInstance(), row, 0, width);
+            }
+
+        };
+
+    }
+
+    /**
+     * @param pixels ARGB pixels, row by row.
+     * @param width  width in pixels.
+     * @param height height in pixels.
+     * @return pixel source reading the array, not copied.
+     */
+    static PixelSource of(int[] pixels, int width, int height) {
+        return of(pixels, width, new Rectangle(0, 0, width, height));
+    }
+
+    /**
+     * @param pixels         ARGB pixels, row by row.
+     * @param scanlineStride pixels between the starts of two rows.
+     * @param bounds         region to be read.
+     * @return pixel source reading the region of the array, not copied.
+     */
+    static PixelSource of(int[] pixels, int scanlineStride, Rectangle bounds) {
+
+        var width = bounds.width;
+        var height = bounds.height;
+        var offset = bounds.y * scanlineStride + bounds.x;
+
+        return new PixelSource() {
+
+            @Override
+            public int getWidth() {
+                return width;
+            }
+
+            @Override
+            public int getHeight() {
+                return height;
+            }
+
+            @Override
+            public void getRow(int y, int[] row) {
+                System.arraycopy(pixels, offset + y * scanlineStride, row, 0, width);
+            }
+
+        };
+
+    }
+
+    /**
+     * @param image decoded image.
+     * @return pixel source reading the image, null if the image is null.
+     */
+    static PixelSource of(BufferedImage image) {
+
+        if (image == null) {
+            return null;
+        }
+
+        return new PixelSource() {
+
+            @Override
+            public int getWidth() {
+                return image.getWidth();
+            }
+
+            @Override
+            public int getHeight() {
+                return image.getHeight();
+            }
+
+            @Override
+            public void getRow(int y, int[] row) {
+                if (image.getType() == BufferedImage.TYPE_INT_ARGB) {
+                    // already non-premultiplied ARGB, copied without colour conversion
+                    image.getRaster().getDataElements(0, y, image.getWidth(), 1, row);
+                } else {
+                    image.getRGB(0, y, image.getWidth(), 1, row, 0, image.getWidth());
+                }
+            }
+
+        };
+
+    }
+
+}
@@ -16,10 +16,22 @@ public class PreferenceHelper {
     private static final String I2L_SECOND_FORMATTING_OPTION = "I2L_SECOND_FORMATTING_OPTION";
     private static final String I2L_THIRD_FORMATTING_OPTION = "I2L_THIRD_FORMATTING_OPTION";
     private static final String I2L_SUBMIT_BUTTON_ENABLE_OPTION = "I2L_SUBMIT_BUTTON_ENABLE_OPTION";
+    private static final String I2L_MULTIPART_UPLOAD_ENABLE_OPTION = "I2L_MULTIPART_UPLOAD_ENABLE_OPTION";
+    private static final String I2L_PNG_COMPRESSION = "I2L_PNG_COMPRESSION";
+    private static final String I2L_PNG_QUANTISATION_ENABLE_OPTION = "I2L_PNG_QUANTISATION_ENABLE_OPTION";
+    private static final String I2L_DOWNSCALING_ENABLE_OPTION = "I2L_DOWNSCALING_ENABLE_OPTION";
+    private static final String I2L_CROPPING_ENABLE_OPTION = "I2L_CROPPING_ENABLE_OPTION";
+    private static final String I2L_DISK_CACHE_ENABLE_OPTION = "I2L_DISK_CACHE_ENABLE_OPTION";
+    private static final String I2L_SIMILAR_RESULT_ENABLE_OPTION = "I2L_SIMILAR_RESULT_ENABLE_OPTION";
+    private static final String I2L_SIMILARITY_THRESHOLD = "I2L_SIMILARITY_THRESHOLD";
+    private static final String I2L_WARM_UP_ENABLE_OPTION = "I2L_WARM_UP_ENABLE_OPTION";
     private static final String I2L_API_USAGE_COUNT = "I2L_API_USAGE_COUNT";
     private static final String I2L_API_USAGE_COUNT_UPDATE_DATE = "I2L_API_USAGE_COUNT_UPDATE_DATE";
 
-    private static final String CONFIG_NODE_PATH = "I2L_API_CREDENTIAL_CONFIG";
+    // system property selecting another preferences node, so that benchmark runs never write the user's config
+    public static final String CONFIG_NODE_PROPERTY = "i2l.preferences.node";
+
+    private static final String CONFIG_NODE_PATH = System.getProperty(CONFIG_NODE_PROPERTY, "I2L_API_CREDENTIAL_CONFIG");
     private static final Preferences PREFERENCES = Preferences.userRoot().node(CONFIG_NODE_PATH);
 
     /**
@@ -158,6 +170,181 @@ public class PreferenceHelper {
         return PREFERENCES.getBoolean(I2L_SUBMIT_BUTTON_ENABLE_OPTION, false);
     }
 
+    /**
+     * Set multipart upload enable option.
+     *
+     * @param option option to be written.
+     */
+    public static void setMultipartUploadEnableOption(boolean option) {
+        PREFERENCES.putBoolean(I2L_MULTIPART_UPLOAD_ENABLE_OPTION, option);
+    }
+
+    /**
+     * Get multipart upload option enabled or not.
+     *
+     * @return multipart upload enable option.
+     */
+    public static boolean getMultipartUploadEnableOption() {
+        return PREFERENCES.getBoolean(I2L_MULTIPART_UPLOAD_ENABLE_OPTION, false);
+    }
+
+    /**
+     * Get the upload mode selected in the preferences.
+     *
+     * @return upload mode.
+     */
+    public static UploadMode getUploadMode() {
+        return getMultipartUploadEnableOption() ? UploadMode.MULTIPART : UploadMode.JSON;
+    }
+
+    /**
+     * Set PNG compression of the uploaded images.
+     *
+     * @param compression PNG compression to be written.
+     */
+    public static void setPNGCompression(PNGCompression compression) {
+        PREFERENCES.put(I2L_PNG_COMPRESSION, compression.name());
+    }
+
+    /**
+     * Get PNG compression of the uploaded images.
+     *
+     * @return PNG compression, the default one if unset or unknown.
+     */
+    public static PNGCompression getPNGCompression() {
+        try {
+            return PNGCompression.valueOf(PREFERENCES.get(I2L_PNG_COMPRESSION, PNGCompression.DEFAULT.name()));
+        } catch (IllegalArgumentException e) {
+            return PNGCompression.DEFAULT;
+        }
+    }
+
+    /**
+     * Set grey quantisation of the uploaded images enable option.
+     *
+     * @param option option to be written.
+     */
+    public static void setPNGQuantisationEnableOption(boolean option) {
+        PREFERENCES.putBoolean(I2L_PNG_QUANTISATION_ENABLE_OPTION, option);
+    }
+
+    /**
+     * Get grey quantisation of the uploaded images enabled or not.
+     *
+     * @return grey quantisation enable option.
+     */
+    public static boolean getPNGQuantisationEnableOption() {
+        return PREFERENCES.getBoolean(I2L_PNG_QUANTISATION_ENABLE_OPTION, true);
+    }
+
+    /**
+     * Set downscaling of oversized images enable option.
+     *
+     * @param option option to be written.
+     */
+    public static void setDownscalingEnableOption(boolean option) {
+        PREFERENCES.putBoolean(I2L_DOWNSCALING_ENABLE_OPTION, option);
+    }
+
+    /**
+     * Get downscaling of oversized images enabled or not.
+     *
+     * @return downscaling enable option.
+     */
+    public static boolean getDownscalingEnableOption() {
+        return PREFERENCES.getBoolean(I2L_DOWNSCALING_ENABLE_OPTION, true);
+    }
+
+    /**
+     * Set cropping of the image margins enable option.
+     *
+     * @param option option to be written.
+     */
+    public static void setCroppingEnableOption(boolean option) {
+        PREFERENCES.putBoolean(I2L_CROPPING_ENABLE_OPTION, option);
+    }
+
+    /**
+     * Get cropping of the image margins enabled or not.
+     *
+     * @return cropping enable option.
+     */
+    public static boolean getCroppingEnableOption() {
+        return PREFERENCES.getBoolean(I2L_CROPPING_ENABLE_OPTION, true);
+    }
+
+    /**
+     * Set on-disk result cache enable option.
+     *
+     * @param option option to be written.
+     */
+    public static void setDiskCacheEnableOption(boolean option) {
+        PREFERENCES.putBoolean(I2L_DISK_CACHE_ENABLE_OPTION, option);
+    }
+
+    /**
+     * Get on-disk result cache enabled or not.
+     *
+     * @return disk cache enable option.
+     */
+    public static boolean getDiskCacheEnableOption() {
+        return PREFERENCES.getBoolean(I2L_DISK_CACHE_ENABLE_OPTION, true);
+    }
+
+    /**
+     * Set similar result enable option.
+     *
+     * @param option option to be written.
+     */
+    public static void setSimilarResultEnableOption(boolean option) {
+        PREFERENCES.putBoolean(I2L_SIMILAR_RESULT_ENABLE_OPTION, option);
+    }
+
+    /**
+     * Get similar result option enabled or not.
+     *
+     * @return similar result enable option.
+     */
+    public static boolean getSimilarResultEnableOption() {
+        return PREFERENCES.getBoolean(I2L_SIMILAR_RESULT_ENABLE_OPTION, true);
+    }
+
+    /**
+     * Set similarity threshold.
+     *
+     * @param threshold minimal similarity in percent to be written.
+     */
+    public static void setSimilarityThreshold(int threshold) {
+        PREFERENCES.putInt(I2L_SIMILARITY_THRESHOLD, threshold);
+    }
+
+    /**
+     * Get similarity threshold.
+     *
+     * @return minimal similarity in percent.
+     */
+    public static int getSimilarityThreshold() {
+        return PREFERENCES.getInt(I2L_SIMILARITY_THRESHOLD, 95);
+    }
+
+    /**
+     * Set startup warm-up enable option.
+     *
+     * @param option option to be written.
+     */
+    public static void setWarmUpEnableOption(boolean option) {
+        PREFERENCES.putBoolean(I2L_WARM_UP_ENABLE_OPTION, option);
+    }
+
+    /**
+     * Get startup warm-up option enabled or not.
+     *
+     * @return startup warm-up enable option.
+     */
+    public static boolean getWarmUpEnableOption() {
+        return PREFERENCES.getBoolean(I2L_WARM_UP_ENABLE_OPTION, true);
+    }
+
     /**
      * Date check and zero usage.
      */
@@ -1,5 +1,7 @@
 package io;
 
+import java.util.Objects;
+
 
 /**
  * IO.ProxyConfig.java
@@ -43,4 +45,25 @@ public class ProxyConfig {
         return !"".equals(hostname) & port >= 0 && port <= 65535;
     }
 
+    @Override
+    public boolean equals(Object object) {
+
+        if (this == object) {
+            return true;
+        }
+
+        if (!(object instanceof ProxyConfig)) {
+            return false;
+        }
+
+        var config = (ProxyConfig) object;
+        return port == config.port && Objects.equals(hostname, config.hostname);
+
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(hostname, port);
+    }
+
 }
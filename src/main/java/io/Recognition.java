@@ -2,35 +2,46 @@ package io;
 
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
-import javafx.embed.swing.SwingFXUtils;
 import javafx.scene.image.Image;
 
-import javax.imageio.ImageIO;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
+import java.awt.image.BufferedImage;
+import java.net.http.HttpRequest;
 import java.security.NoSuchAlgorithmException;
-import java.util.Base64;
 import java.util.concurrent.Callable;
 
 
 /**
  * IO.Recognition.java
  * implements Callable for concurrent call.
- * Set the "src" value with base64 encoded clipboard image before each request.
+ * Set the clipboard image before each request, the "src" value is streamed when the request is sent.
  */
 public class Recognition implements Callable<Response> {
 
     private final JsonObject parameters = new JsonObject();
 
+    private PixelSource image;
+
+    private UploadMode uploadMode = UploadMode.JSON;
+
+    private PNGCompression compression = PNGCompression.DEFAULT;
+
+    private boolean quantisation = true;
+
+    private boolean downscaling = true;
+
+    private boolean cropping = true;
+
+    // format and PNG size of the last uploaded image, written by the encoding thread
+    private volatile PNGFormat uploadFormat;
+    private volatile long uploadSize;
+    private volatile long uploadBytesSaved;
+
     /**
      * Original parameter explanation: https://docs.mathpix.com/
      * Initialisation of the IO.TextRecognition class and a JsonObject with unchanged parameters.
      */
     public Recognition() {
 
-        // "src" initialises with empty string
-        parameters.addProperty("src", "");
-
         // formats
         var formatsParameters = new JsonArray();
         formatsParameters.add("text");
@@ -54,34 +65,225 @@ public class Recognition implements Callable<Response> {
     }
 
     /**
-     * Convert the image to byte[] and encode the image with base64.
-     * Replace the "src" value in the pre-initialised parameters JsonObject.
+     * Set the image to be streamed as the "src" value, its pixels are read when the request is sent.
+     * Background margins are cropped and oversized images are downscaled first, see IO.ImageCropper and IO.ImageDownscaler.
+     * PNG and Base64 encoding are deferred to the request, see IO.ImageBodyPublisher.
      *
      * @param image Image to be recognised.
      * @return whether the parameter setting is successful.
      */
     public Boolean setSrcParameters(Image image) {
 
-        // output stream in byte array
-        var byteArrayOutputStream = new ByteArrayOutputStream();
-
-        // convert javafx.scene.image.Image to java.awt.image.BufferedImage
-        var bufferedImage = SwingFXUtils.fromFXImage(image, null);
-
-        try {
-            // BufferedImage to byte array output stream
-            ImageIO.write(bufferedImage, "png", byteArrayOutputStream);
-            // byte array output stream to byte[]
-            var imageInByte = byteArrayOutputStream.toByteArray();
-            // add header of "src"
-            var src = "data:image/jpg;base64," + Base64.getEncoder().encodeToString(imageInByte);
-            // replace original "src" with new encoded value
-            parameters.addProperty("src", src);
-            return true;
-        } catch (IOException e) {
-            return false;
+        if (cropping) {
+            var croppedImage = ImageCropper.crop(image);
+            return setSrcParameters(croppedImage == null ? null : croppedImage.getPixelSource());
         }
 
+        // read through the PixelReader, without a copy to a java.awt.image.BufferedImage
+        return setSrcParameters(PixelSource.of(image));
+
+    }
+
+    /**
+     * Set an image already read, and cropped if it has to be, used by the GUI with the crop of its preview.
+     *
+     * @param image pixels to be recognised, null if they cannot be read.
+     * @return whether the parameter setting is successful.
+     */
+    public Boolean setSrcParameters(PixelSource image) {
+
+        this.image = preprocess(image);
+
+        return this.image != null;
+
+    }
+
+    /**
+     * Set an already decoded image, used by the headless modes.
+     *
+     * @param image BufferedImage to be recognised.
+     * @return whether the parameter setting is successful.
+     */
+    public Boolean setSrcParameters(BufferedImage image) {
+
+        this.image = preprocess(cropping ? ImageCropper.crop(image) : PixelSource.of(image));
+
+        return this.image != null;
+
+    }
+
+    /**
+     * @return the image to be uploaded, hashed and encoded instead of the given one.
+     */
+    private PixelSource preprocess(PixelSource image) {
+        return downscaling ? ImageDownscaler.downscale(image) : image;
+    }
+
+    /**
+     * @return result cache key of the current image and parameters.
+     */
+    public String getCacheKey() {
+        return getCacheKey(image);
+    }
+
+    /**
+     * @param image image taken from getImage(), the one to be sent with the same key.
+     * @return result cache key of the image and parameters.
+     */
+    String getCacheKey(PixelSource image) {
+        return ResultCache.getKey(image, parameters.toString());
+    }
+
+    /**
+     * @return the current image, after cropping and downscaling.
+     */
+    PixelSource getImage() {
+        return image;
+    }
+
+    /**
+     * @return how the image will be uploaded.
+     */
+    public UploadMode getUploadMode() {
+        return uploadMode;
+    }
+
+    /**
+     * Select how the image is uploaded in the next request.
+     *
+     * @param uploadMode upload mode to be used.
+     */
+    public void setUploadMode(UploadMode uploadMode) {
+        this.uploadMode = uploadMode;
+    }
+
+    /**
+     * @return PNG compression of the uploaded image.
+     */
+    public PNGCompression getCompression() {
+        return compression;
+    }
+
+    /**
+     * Select the PNG compression of the image in the next request.
+     *
+     * @param compression PNG compression to be used.
+     */
+    public void setCompression(PNGCompression compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * @return whether near-grey images are quantised before upload, see IO.PNGFormat.
+     */
+    public boolean getQuantisation() {
+        return quantisation;
+    }
+
+    /**
+     * Allow the image of the next request to be quantised to 16 grey levels.
+     *
+     * @param quantisation whether near-grey images may be quantised.
+     */
+    public void setQuantisation(boolean quantisation) {
+        this.quantisation = quantisation;
+    }
+
+    /**
+     * @return whether oversized images are downscaled before upload.
+     */
+    public boolean getDownscaling() {
+        return downscaling;
+    }
+
+    /**
+     * Allow the next images with large glyphs to be downscaled, set it before the image.
+     *
+     * @param downscaling whether oversized images may be downscaled.
+     */
+    public void setDownscaling(boolean downscaling) {
+        this.downscaling = downscaling;
+    }
+
+    /**
+     * @return whether the background margins are cropped before upload.
+     */
+    public boolean getCropping() {
+        return cropping;
+    }
+
+    /**
+     * Crop the background margins of the next images, set it before the image.
+     *
+     * @param cropping whether the margins are cropped.
+     */
+    public void setCropping(boolean cropping) {
+        this.cropping = cropping;
+    }
+
+    /**
+     * @return PNG format of the last uploaded image, null before the first upload.
+     */
+    public PNGFormat getUploadFormat() {
+        return uploadFormat;
+    }
+
+    /**
+     * @return PNG size of the last uploaded image in bytes, before Base64 encoding.
+     */
+    public long getUploadSize() {
+        return uploadSize;
+    }
+
+    /**
+     * @return raw image data of the last upload saved by its format compared with RGBA, in bytes,
+     * before deflating, the PNG bytes saved are usually much fewer.
+     */
+    public long getUploadBytesSaved() {
+        return uploadBytesSaved;
+    }
+
+    /**
+     * Record the format and the PNG size of an encoded upload.
+     */
+    private void recordUpload(PixelSource image, PNGFormat format, long size) {
+        uploadFormat = format;
+        uploadSize = size;
+        uploadBytesSaved = format.getBytesSaved(image.getWidth(), image.getHeight());
+    }
+
+    /**
+     * @return Json request body with the current image as a Base64 data URI.
+     */
+    HttpRequest.BodyPublisher getJsonRequestBody() {
+        return getJsonRequestBody(image);
+    }
+
+    /**
+     * @param uploadedImage image to be sent.
+     * @return Json request body with the image as a Base64 data URI.
+     */
+    HttpRequest.BodyPublisher getJsonRequestBody(PixelSource uploadedImage) {
+        return ImageBodyPublisher.ofJson(uploadedImage, compression, quantisation, parameters,
+                (format, size) -> recordUpload(uploadedImage, format, size));
+    }
+
+    /**
+     * @param boundary multipart boundary.
+     * @return multipart/form-data request body with the current image as a raw PNG file part.
+     */
+    HttpRequest.BodyPublisher getMultipartRequestBody(String boundary) {
+        return getMultipartRequestBody(image, boundary);
+    }
+
+    /**
+     * @param uploadedImage image to be sent.
+     * @param boundary      multipart boundary.
+     * @return multipart/form-data request body with the image as a raw PNG file part.
+     */
+    HttpRequest.BodyPublisher getMultipartRequestBody(PixelSource uploadedImage, String boundary) {
+        return ImageBodyPublisher.ofMultipart(uploadedImage, compression, quantisation, parameters, boundary,
+                (format, size) -> recordUpload(uploadedImage, format, size));
     }
 
     /**
@@ -91,7 +293,15 @@ public class Recognition implements Callable<Response> {
      */
     @Override
     public Response call() throws NoSuchAlgorithmException {
-        return OCRRequestHelper.getResult(parameters);
+        return call(image);
+    }
+
+    /**
+     * @param image image taken from getImage() when its cache key was computed.
+     * @return OCR request result of the image, whatever image has been set since.
+     */
+    Response call(PixelSource image) throws NoSuchAlgorithmException {
+        return OCRRequestHelper.getResult(this, image);
     }
 
 }
@@ -0,0 +1,83 @@
+package io;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * IO.RequestCoalescer.java
+ * Single-flight layer in front of the OCR request.
+ * The first caller of a key sends the request, later callers of the same key attach to its pending CompletableFuture.
+ */
+public class RequestCoalescer {
+
+    private static final ConcurrentHashMap<String, CompletableFuture<Response>> PENDING_REQUESTS = new ConcurrentHashMap<>();
+
+    private static final AtomicLong REQUEST_COUNT = new AtomicLong();
+    private static final AtomicLong COALESCED_REQUEST_COUNT = new AtomicLong();
+
+    /**
+     * Call the request, or wait for an identical pending one.
+     *
+     * @param key     request key, see IO.ResultCache.getKey().
+     * @param request request to be sent if none is pending.
+     * @return result of the request.
+     */
+    public static Response call(String key, Callable<Response> request) throws InterruptedException, ExecutionException {
+
+        REQUEST_COUNT.incrementAndGet();
+
+        var future = new CompletableFuture<Response>();
+        var pendingFuture = PENDING_REQUESTS.putIfAbsent(key, future);
+
+        if (pendingFuture != null) {
+            COALESCED_REQUEST_COUNT.incrementAndGet();
+            return pendingFuture.get();
+        }
+
+        try {
+            var response = request.call();
+            future.complete(response);
+            return response;
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+            throw new ExecutionException(e);
+        } finally {
+            PENDING_REQUESTS.remove(key, future);
+        }
+
+    }
+
+    /**
+     * @return number of requests pending.
+     */
+    public static int getPendingRequestCount() {
+        return PENDING_REQUESTS.size();
+    }
+
+    /**
+     * @return number of calls.
+     */
+    public static long getRequestCount() {
+        return REQUEST_COUNT.get();
+    }
+
+    /**
+     * @return number of calls attached to a pending request.
+     */
+    public static long getCoalescedRequestCount() {
+        return COALESCED_REQUEST_COUNT.get();
+    }
+
+    /**
+     * @return formatted coalescing statistics.
+     */
+    public static String getStatistics() {
+        return String.format("requests: %d, coalesced: %d, pending: %d",
+                getRequestCount(), getCoalescedRequestCount(), getPendingRequestCount());
+    }
+
+}
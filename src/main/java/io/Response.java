@@ -1,13 +1,14 @@
 package io;
 
-import com.google.gson.JsonObject;
-
-import java.util.ArrayList;
-
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * IO.Response.java
- * used by Gson to deserialize the JSON string to the object.
+ * used by IO.ResponseTypeAdapter to deserialize the JSON response to the object.
+ * The "data" entries are indexed by type when decoded, joined values and the text index are computed lazily and memoised.
  */
 public class Response {
 
@@ -15,17 +16,21 @@ public class Response {
 
     private String text;
     private double confidence;
-    private ArrayList<JsonObject> data;
+    private Map<DataType, List<String>> data = Collections.emptyMap();
+
+    private final Map<DataType, String> joinedData = new EnumMap<>(DataType.class);
+
+    private LaTeXSegmentIndex segmentIndex;
 
     public Response(String error) {
         this.error = error;
     }
 
-    public Response(String error, String text, double confidence, ArrayList<JsonObject> data) {
+    public Response(String error, String text, double confidence, Map<DataType, List<String>> data) {
         this.error = error;
         this.text = text;
-        this.data = data;
         this.confidence = confidence;
+        this.data = data;
     }
 
     /**
@@ -50,42 +55,46 @@ public class Response {
     }
 
     /**
-     * @return MathML result from data;
+     * @return index of the text result, null if there is no text.
      */
-    private String getTypeFromData(String type) {
-
-        if (data == null) {
-            return "";
-        }
-
-        var result = new StringBuilder();
-
-        for (JsonObject jsonObject : data) {
-            if (type.equals(jsonObject.get("type").getAsString())) {
-                result.append(jsonObject.get("value").getAsString()).append("\n\n");
-            }
-        }
-
-        if (result.length() > 1) {
-            result.deleteCharAt(result.length() - 1);
+    public synchronized LaTeXSegmentIndex getSegmentIndex() {
+        if (segmentIndex == null && text != null) {
+            segmentIndex = LaTeXSegmentIndex.of(text);
         }
+        return segmentIndex;
+    }
 
-        return result.toString();
+    /**
+     * @return "data" values indexed by type.
+     */
+    Map<DataType, List<String>> getData() {
+        return data;
+    }
 
+    /**
+     * @param dataType type of the "data" entries.
+     * @return values of the given type separated by blank lines, empty string if none.
+     */
+    public synchronized String getData(DataType dataType) {
+        return joinedData.computeIfAbsent(dataType, type -> {
+            var values = data.get(type);
+            // keep a single trailing line break as before
+            return values == null || values.isEmpty() ? "" : String.join("\n\n", values) + "\n";
+        });
     }
 
     /**
      * @return TSV result.
      */
     public String getTSV() {
-        return getTypeFromData("tsv");
+        return getData(DataType.TSV);
     }
 
     /**
      * @return MathML result;
      */
     public String getMathML() {
-        return getTypeFromData("mathml");
+        return getData(DataType.MATHML);
     }
 
 }
@@ -0,0 +1,203 @@
+package io;
+
+import com.google.gson.JsonParser;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * IO.ResponseTypeAdapter.java
+ * Streaming Gson TypeAdapter for IO.Response.
+ * Reads "error", "text", "confidence" and the typed "data" entries token by token,
+ * everything else in the response is skipped without building a JSON tree.
+ * The "data" values are indexed by IO.DataType while decoding, entries of unknown types are skipped.
+ */
+public class ResponseTypeAdapter extends TypeAdapter<Response> {
+
+    public static final ResponseTypeAdapter INSTANCE = new ResponseTypeAdapter();
+
+    /**
+     * Decode a response directly from the response body stream.
+     *
+     * @param inputStream response body, closed after decoding.
+     * @return a IO.Response object, null if the body is empty.
+     * @throws JsonSyntaxException if the body ends before the response does.
+     */
+    public static Response decode(InputStream inputStream) throws IOException {
+
+        try (var jsonReader = new JsonReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8))) {
+
+            // same leniency as Gson.fromJson()
+            jsonReader.setLenient(true);
+
+            try {
+                jsonReader.peek();
+            } catch (EOFException e) {
+                // empty body
+                return null;
+            }
+
+            try {
+                return INSTANCE.read(jsonReader);
+            } catch (EOFException e) {
+                // truncated body, as Gson.fromJson() reports it
+                throw new JsonSyntaxException("Truncated response body", e);
+            }
+
+        }
+
+    }
+
+    @Override
+    public Response read(JsonReader jsonReader) throws IOException {
+
+        if (jsonReader.peek() == JsonToken.NULL) {
+            jsonReader.nextNull();
+            return null;
+        }
+
+        String error = null;
+        String text = null;
+        double confidence = 0;
+        var data = new EnumMap<DataType, List<String>>(DataType.class);
+
+        jsonReader.beginObject();
+
+        while (jsonReader.hasNext()) {
+            switch (jsonReader.nextName()) {
+                case "error" -> error = readString(jsonReader);
+                case "text" -> text = readString(jsonReader);
+                case "confidence" -> confidence = readDouble(jsonReader);
+                case "data" -> readData(jsonReader, data);
+                default -> jsonReader.skipValue();
+            }
+        }
+
+        jsonReader.endObject();
+
+        return new Response(error, text, confidence, data);
+
+    }
+
+    /**
+     * Read the "data" array of {"type": ..., "value": ...} objects.
+     */
+    private static void readData(JsonReader jsonReader, Map<DataType, List<String>> data) throws IOException {
+
+        if (jsonReader.peek() != JsonToken.BEGIN_ARRAY) {
+            jsonReader.skipValue();
+            return;
+        }
+
+        jsonReader.beginArray();
+
+        while (jsonReader.hasNext()) {
+
+            if (jsonReader.peek() != JsonToken.BEGIN_OBJECT) {
+                jsonReader.skipValue();
+                continue;
+            }
+
+            String type = null;
+            String value = null;
+
+            jsonReader.beginObject();
+            while (jsonReader.hasNext()) {
+                switch (jsonReader.nextName()) {
+                    case "type" -> type = readString(jsonReader);
+                    case "value" -> value = readString(jsonReader);
+                    default -> jsonReader.skipValue();
+                }
+            }
+            jsonReader.endObject();
+
+            var dataType = DataType.fromType(type);
+            if (dataType != null && value != null) {
+                data.computeIfAbsent(dataType, key -> new ArrayList<>(1)).add(value);
+            }
+
+        }
+
+        jsonReader.endArray();
+
+    }
+
+    /**
+     * @return string value, null for JSON null, nested values as their JSON string.
+     */
+    private static String readString(JsonReader jsonReader) throws IOException {
+        return switch (jsonReader.peek()) {
+            case NULL -> {
+                jsonReader.nextNull();
+                yield null;
+            }
+            case STRING, NUMBER -> jsonReader.nextString();
+            case BOOLEAN -> Boolean.toString(jsonReader.nextBoolean());
+            default -> JsonParser.parseReader(jsonReader).toString();
+        };
+    }
+
+    /**
+     * @return number value, 0 for anything else.
+     */
+    private static double readDouble(JsonReader jsonReader) throws IOException {
+
+        if (jsonReader.peek() == JsonToken.NUMBER || jsonReader.peek() == JsonToken.STRING) {
+            try {
+                return jsonReader.nextDouble();
+            } catch (NumberFormatException ignored) {
+                return 0;
+            }
+        }
+
+        jsonReader.skipValue();
+        return 0;
+
+    }
+
+    @Override
+    public void write(JsonWriter jsonWriter, Response response) throws IOException {
+
+        if (response == null) {
+            jsonWriter.nullValue();
+            return;
+        }
+
+        jsonWriter.beginObject();
+
+        if (response.getError() != null) {
+            jsonWriter.name("error").value(response.getError());
+        }
+
+        if (response.getText() != null) {
+            jsonWriter.name("text").value(response.getText());
+        }
+
+        jsonWriter.name("confidence").value(response.getConfidence());
+
+        jsonWriter.name("data").beginArray();
+        for (var entry : response.getData().entrySet()) {
+            for (var value : entry.getValue()) {
+                jsonWriter.beginObject().name("type").value(entry.getKey().getType()).name("value").value(value).endObject();
+            }
+        }
+        jsonWriter.endArray();
+
+        jsonWriter.endObject();
+
+    }
+
+}
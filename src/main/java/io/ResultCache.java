@@ -0,0 +1,306 @@
+package io;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+
+/**
+ * IO.ResultCache.java
+ * Content-addressed cache of successful OCR results.
+ * Keyed by a SHA-256 hash of the decoded pixels and the request options,
+ * with an in-memory LRU tier in front of a size-bounded on-disk tier.
+ * The disk tier can be turned off in the preferences, its files are read and written outside the memory tier lock.
+ */
+public class ResultCache {
+
+    private static final int MEMORY_CAPACITY = 64;
+    private static final long DISK_CAPACITY = 8 * 1024 * 1024;
+
+    private static final String FILE_EXTENSION = ".json";
+    private static final Path CACHE_DIRECTORY = Path.of(System.getProperty("user.home"), ".Image2LaTeX", "cache");
+
+    private static final AtomicLong MEMORY_HIT_COUNT = new AtomicLong();
+    private static final AtomicLong DISK_HIT_COUNT = new AtomicLong();
+    private static final AtomicLong MISS_COUNT = new AtomicLong();
+    private static final AtomicLong EVICTION_COUNT = new AtomicLong();
+
+    // access ordered, the eldest entry is the least recently used one
+    private static final Map<String, Response> MEMORY_CACHE = new LinkedHashMap<>(MEMORY_CAPACITY, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Response> eldest) {
+            if (size() > MEMORY_CAPACITY) {
+                EVICTION_COUNT.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    };
+
+    // guards the writes and evictions of the on-disk tier
+    private static final Object DISK_LOCK = new Object();
+
+    // total size of the on-disk tier, -1 before the directory has been scanned, guarded by DISK_LOCK
+    private static long diskSize = -1;
+
+    /**
+     * Compute the cache key of an image with the given request options.
+     *
+     * @param image   decoded image.
+     * @param options request options affecting the result.
+     * @return hex encoded SHA-256 hash.
+     */
+    public static String getKey(PixelSource image, String options) {
+
+        MessageDigest messageDigest;
+        try {
+            messageDigest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        var width = image.getWidth();
+        var height = image.getHeight();
+
+        // hash the image size, then the ARGB pixels row by row
+        var rowBuffer = ByteBuffer.allocate(Math.max(width, 2) * Integer.BYTES);
+        rowBuffer.putInt(width).putInt(height).flip();
+        messageDigest.update(rowBuffer);
+
+        var row = new int[width];
+        for (int y = 0; y < height; y++) {
+            image.getRow(y, row);
+            rowBuffer.clear();
+            rowBuffer.asIntBuffer().put(row);
+            rowBuffer.limit(width * Integer.BYTES);
+            messageDigest.update(rowBuffer);
+        }
+
+        messageDigest.update(options.getBytes(StandardCharsets.UTF_8));
+
+        var hash = new StringBuilder();
+        for (byte b : messageDigest.digest()) {
+            hash.append(String.format("%02x", b));
+        }
+
+        return hash.toString();
+
+    }
+
+    /**
+     * Look up a result, the memory tier first, then the disk tier.
+     *
+     * @param key cache key.
+     * @return cached IO.Response object, null if not cached.
+     */
+    public static Response get(String key) {
+
+        Response response;
+        synchronized (MEMORY_CACHE) {
+            response = MEMORY_CACHE.get(key);
+        }
+
+        if (response != null) {
+            MEMORY_HIT_COUNT.incrementAndGet();
+            return response;
+        }
+
+        // a slow disk does not hold up the lookups of the other threads
+        response = PreferenceHelper.getDiskCacheEnableOption() ? readFromDisk(key) : null;
+        if (response != null) {
+            DISK_HIT_COUNT.incrementAndGet();
+            synchronized (MEMORY_CACHE) {
+                MEMORY_CACHE.put(key, response);
+            }
+            return response;
+        }
+
+        MISS_COUNT.incrementAndGet();
+        return null;
+
+    }
+
+    /**
+     * Store a result in the memory tier, and in the disk tier if enabled, results with errors are not cached.
+     *
+     * @param key      cache key.
+     * @param response IO.Response object to be cached.
+     */
+    public static void put(String key, Response response) {
+
+        if (response == null || response.getError() != null) {
+            return;
+        }
+
+        synchronized (MEMORY_CACHE) {
+            MEMORY_CACHE.put(key, response);
+        }
+
+        if (PreferenceHelper.getDiskCacheEnableOption()) {
+            writeToDisk(key, response);
+        }
+
+    }
+
+    /**
+     * @return cached response, null if not found or unreadable.
+     */
+    private static Response readFromDisk(String key) {
+
+        var path = CACHE_DIRECTORY.resolve(key + FILE_EXTENSION);
+
+        if (!Files.isRegularFile(path)) {
+            return null;
+        }
+
+        try {
+            var response = ResponseTypeAdapter.INSTANCE.fromJson(new StringReader(Files.readString(path)));
+            // refresh the last access time used for eviction
+            Files.setLastModifiedTime(path, FileTime.from(Instant.now()));
+            return response;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+
+    }
+
+    /**
+     * Write a response to the disk tier and evict the least recently used files beyond the capacity.
+     */
+    private static void writeToDisk(String key, Response response) {
+
+        var path = CACHE_DIRECTORY.resolve(key + FILE_EXTENSION);
+        var bytes = ResponseTypeAdapter.INSTANCE.toJson(response).getBytes(StandardCharsets.UTF_8);
+
+        synchronized (DISK_LOCK) {
+            try {
+                Files.createDirectories(CACHE_DIRECTORY);
+
+                if (diskSize < 0) {
+                    diskSize = getDirectorySize();
+                } else if (Files.exists(path)) {
+                    diskSize -= Files.size(path);
+                }
+
+                // readers never see a partially written file
+                var temporaryPath = Files.createTempFile(CACHE_DIRECTORY, key, ".tmp");
+                try {
+                    Files.write(temporaryPath, bytes);
+                    Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } finally {
+                    Files.deleteIfExists(temporaryPath);
+                }
+                diskSize += bytes.length;
+
+                if (diskSize > DISK_CAPACITY) {
+                    evictFromDisk();
+                }
+            } catch (IOException | RuntimeException ignored) {
+                // the disk tier is best-effort
+            }
+        }
+
+    }
+
+    /**
+     * Delete the least recently used files until the disk tier fits in its capacity.
+     */
+    private static void evictFromDisk() throws IOException {
+
+        Map<Path, FileTime> lastModifiedTimes;
+        try (var paths = Files.list(CACHE_DIRECTORY)) {
+            lastModifiedTimes = paths.filter(path -> path.toString().endsWith(FILE_EXTENSION)).
+                    collect(Collectors.toMap(path -> path, ResultCache::getLastModifiedTime));
+        }
+
+        var sortedPaths = lastModifiedTimes.keySet().stream().
+                sorted(Comparator.comparing(lastModifiedTimes::get)).collect(Collectors.toList());
+
+        for (Path path : sortedPaths) {
+            if (diskSize <= DISK_CAPACITY) {
+                break;
+            }
+            var size = Files.size(path);
+            Files.deleteIfExists(path);
+            diskSize -= size;
+            EVICTION_COUNT.incrementAndGet();
+        }
+
+    }
+
+    /**
+     * @return total size of the cache files.
+     */
+    private static long getDirectorySize() throws IOException {
+        try (var paths = Files.list(CACHE_DIRECTORY)) {
+            return paths.filter(path -> path.toString().endsWith(FILE_EXTENSION)).mapToLong(path -> {
+                try {
+                    return Files.size(path);
+                } catch (IOException e) {
+                    return 0;
+                }
+            }).sum();
+        }
+    }
+
+    /**
+     * @return last modified time, epoch if unreadable.
+     */
+    private static FileTime getLastModifiedTime(Path path) {
+        try {
+            return Files.getLastModifiedTime(path);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    /**
+     * @return number of memory tier hits.
+     */
+    public static long getMemoryHitCount() {
+        return MEMORY_HIT_COUNT.get();
+    }
+
+    /**
+     * @return number of disk tier hits.
+     */
+    public static long getDiskHitCount() {
+        return DISK_HIT_COUNT.get();
+    }
+
+    /**
+     * @return number of misses.
+     */
+    public static long getMissCount() {
+        return MISS_COUNT.get();
+    }
+
+    /**
+     * @return number of entries evicted from either tier.
+     */
+    public static long getEvictionCount() {
+        return EVICTION_COUNT.get();
+    }
+
+    /**
+     * @return formatted cache statistics.
+     */
+    public static String getStatistics() {
+        return String.format("memory hits: %d, disk hits: %d, misses: %d, evictions: %d",
+                getMemoryHitCount(), getDiskHitCount(), getMissCount(), getEvictionCount());
+    }
+
+}
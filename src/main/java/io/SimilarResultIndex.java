@@ -0,0 +1,141 @@
+package io;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * IO.SimilarResultIndex.java
+ * Past results indexed by the perceptual hash of their images.
+ * A BK-tree over the Hamming distance finds the nearest past result without comparing against every entry.
+ */
+public class SimilarResultIndex {
+
+    private static final int MAX_ENTRY_COUNT = 1024;
+
+    // insertion ordered, used to rebuild the tree with the most recent half once full
+    private static final LinkedHashMap<Long, Response> ENTRIES = new LinkedHashMap<>();
+
+    private static Node root;
+
+    /**
+     * Add a successful result.
+     *
+     * @param hash     perceptual hash of the image.
+     * @param response IO.Response object of the image.
+     */
+    public static synchronized void put(long hash, Response response) {
+
+        if (response == null || response.getError() != null) {
+            return;
+        }
+
+        // re-insert to move the entry to the end
+        ENTRIES.remove(hash);
+        ENTRIES.put(hash, response);
+
+        if (ENTRIES.size() > MAX_ENTRY_COUNT) {
+            var recentEntries = new ArrayList<>(ENTRIES.entrySet()).subList(ENTRIES.size() - MAX_ENTRY_COUNT / 2, ENTRIES.size());
+            var retained = new LinkedHashMap<Long, Response>();
+            for (Map.Entry<Long, Response> entry : recentEntries) {
+                retained.put(entry.getKey(), entry.getValue());
+            }
+            ENTRIES.clear();
+            ENTRIES.putAll(retained);
+            root = null;
+            for (Long entryHash : ENTRIES.keySet()) {
+                insert(entryHash);
+            }
+        } else {
+            insert(hash);
+        }
+
+    }
+
+    /**
+     * Find the most similar past result.
+     *
+     * @param hash          perceptual hash of the image.
+     * @param minSimilarity minimal similarity between 0 and 1.
+     * @return the nearest result with at least the given similarity, null if none.
+     */
+    public static synchronized Response get(long hash, double minSimilarity) {
+
+        var maxDistance = (int) Math.floor((1 - minSimilarity) * 64);
+
+        if (root == null || maxDistance < 0) {
+            return null;
+        }
+
+        var nearest = new Node[1];
+        var nearestDistance = new int[]{maxDistance + 1};
+        search(root, hash, maxDistance, nearest, nearestDistance);
+
+        return nearest[0] != null ? ENTRIES.get(nearest[0].hash) : null;
+
+    }
+
+    /**
+     * Insert a hash into the BK-tree.
+     */
+    private static void insert(long hash) {
+
+        if (root == null) {
+            root = new Node(hash);
+            return;
+        }
+
+        var node = root;
+
+        while (true) {
+            var distance = PerceptualHash.distance(hash, node.hash);
+            if (distance == 0) {
+                return;
+            }
+            var child = node.children.get(distance);
+            if (child == null) {
+                node.children.put(distance, new Node(hash));
+                return;
+            }
+            node = child;
+        }
+
+    }
+
+    /**
+     * Recursive BK-tree search, only subtrees within [distance - maxDistance, distance + maxDistance] can match.
+     */
+    private static void search(Node node, long hash, int maxDistance, Node[] nearest, int[] nearestDistance) {
+
+        var distance = PerceptualHash.distance(hash, node.hash);
+
+        if (distance < nearestDistance[0]) {
+            nearest[0] = node;
+            nearestDistance[0] = distance;
+        }
+
+        for (Map.Entry<Integer, Node> entry : node.children.entrySet()) {
+            if (Math.abs(entry.getKey() - distance) <= maxDistance) {
+                search(entry.getValue(), hash, maxDistance, nearest, nearestDistance);
+            }
+        }
+
+    }
+
+    /**
+     * BK-tree node, children are keyed by their distance to the node.
+     */
+    private static final class Node {
+
+        private final long hash;
+        private final Map<Integer, Node> children = new HashMap<>(4);
+
+        private Node(long hash) {
+            this.hash = hash;
+        }
+
+    }
+
+}
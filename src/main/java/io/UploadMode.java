@@ -0,0 +1,20 @@
+package io;
+
+
+/**
+ * IO.UploadMode.java
+ * How the image is transferred to the Mathpix API.
+ */
+public enum UploadMode {
+
+    /**
+     * Base64 data URI inside the Json request parameters.
+     */
+    JSON,
+
+    /**
+     * Raw PNG as a multipart/form-data file part, with the other parameters in the "options_json" part.
+     */
+    MULTIPART
+
+}
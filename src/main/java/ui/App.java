@@ -1,6 +1,7 @@
 package ui;
 
 import io.IOUtils;
+import io.PreferenceHelper;
 import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.scene.Scene;
@@ -76,6 +77,9 @@ public final class App extends Application {
         // add scene to the primary stage
         stage.setScene(scene);
 
+        // render equations at the output scale of the screen showing the stage
+        backGridPane.setOutputScaleSource(stage);
+
         // set app title
         stage.setTitle(APPLICATION_TITLE);
 
@@ -120,6 +124,11 @@ public final class App extends Application {
         // set the app window is not resizable
         stage.setResizable(false);
 
+        // load what the first recognition needs while the app is idle
+        if (PreferenceHelper.getWarmUpEnableOption()) {
+            WarmUp.start();
+        }
+
     }
 
     /**
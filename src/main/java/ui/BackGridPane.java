@@ -1,15 +1,24 @@
 package ui;
 
 import io.IOUtils;
+import io.ImageCropper;
+import io.LaTeXSegmentIndex;
+import io.PerceptualHash;
+import io.PixelSource;
 import io.PreferenceHelper;
 import io.Recognition;
 import io.Response;
+import io.SimilarResultIndex;
+import javafx.application.Platform;
 import javafx.concurrent.Task;
 import javafx.geometry.HPos;
 import javafx.geometry.Insets;
+import javafx.geometry.Rectangle2D;
 import javafx.scene.control.Button;
 import javafx.scene.control.Label;
 import javafx.scene.control.ProgressBar;
+import javafx.scene.control.ProgressIndicator;
+import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import javafx.scene.input.Clipboard;
 import javafx.scene.input.KeyCode;
@@ -25,11 +34,13 @@ import javafx.scene.layout.GridPane;
 import javafx.scene.paint.Color;
 import javafx.scene.text.Font;
 import javafx.scene.text.FontWeight;
+import javafx.stage.Window;
 
 import java.time.Instant;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 
 /**
@@ -43,18 +54,32 @@ public class BackGridPane extends GridPane {
     private static final int PREFERRED_WIDTH = 300;
     private static final int PREFERRED_HEIGHT = 100;
 
-    private static final Recognition RECOGNITION = new Recognition();
-
     private static final ImageView CLIPBOARD_IMAGE_VIEW = new ImageView();
     private static final ImageView RENDERED_IMAGE_VIEW = new ImageView();
     private static final Label WAITING_TEXT_LABEL = new Label("Waiting...");
     private static final ProgressBar CONFIDENCE_PROGRESS_BAR = new ProgressBar(0);
+    private static final ProgressIndicator RENDERING_PROGRESS_INDICATOR = new ProgressIndicator();
 
     private static final Clipboard clipboard = Clipboard.getSystemClipboard();
 
+    // crop of the displayed clipboard image, computed once off the FX thread for the preview and the upload
+    private static Image croppingImage;
+    private static CompletableFuture<ImageCropper.CroppedImage> croppingFuture;
+
     private long lastUpdateCompletionTimestamp = Instant.now().getEpochSecond();
     private long lastRequestCompletionTimestamp = Instant.now().getEpochSecond();
 
+    private BorderPane renderedBorderPane;
+
+    // rendering of the latest result, cancelled once superseded
+    private CompletableFuture<Image> renderingFuture;
+
+    // result displayed as rendered equation, rendered again if the output scale changes
+    private LaTeXSegmentIndex renderedSegmentIndex;
+
+    // output scale of the window, equations are rendered at device pixel size
+    private double outputScale = 1;
+
     private static final Color PANE_BORDER_COLOR = new Color(0.898, 0.902, 0.9216, 1);
     private static final BorderWidths PANE_BORDER_WIDTHS = new BorderWidths(1, 0, 1, 0);
     private static final BorderStroke PANE_BORDER_STROKE = new BorderStroke(PANE_BORDER_COLOR, BorderStrokeStyle.SOLID, null, PANE_BORDER_WIDTHS);
@@ -108,9 +133,12 @@ public class BackGridPane extends GridPane {
         add(renderedTextLabel, 0, 2, 2, 1);
 
         // get bordered ImageView
-        var renderedBorderPane = setImageViewBorder(RENDERED_IMAGE_VIEW);
+        renderedBorderPane = setImageViewBorder(RENDERED_IMAGE_VIEW);
         add(renderedBorderPane, 0, 3, 2, 1);
 
+        // placeholder while rendering
+        RENDERING_PROGRESS_INDICATOR.setMaxSize(30, 30);
+
         // show submit button if this option is enabled in the preferences panel
         if (PreferenceHelper.getSubmitButtonEnableOption()) {
             SUBMIT_BUTTON.setVisible(true);
@@ -231,6 +259,8 @@ public class BackGridPane extends GridPane {
 
         // set empty image
         CLIPBOARD_IMAGE_VIEW.setImage(null);
+        CLIPBOARD_IMAGE_VIEW.setViewport(null);
+        cancelRendering();
         RENDERED_IMAGE_VIEW.setImage(null);
 
         // clear result TextFields
@@ -272,13 +302,19 @@ public class BackGridPane extends GridPane {
      * Response handler.
      */
     private void responseHandler(Response response) {
+        responseHandler(response, false);
+    }
+
+    /**
+     * Response handler.
+     *
+     * @param suggested whether the response is the result of a similar image, shown until the actual result arrives.
+     */
+    private void responseHandler(Response response, boolean suggested) {
 
         // if response received
         if (response != null) {
 
-            // update usage count
-            PreferenceHelper.updateUsageCount();
-
             // error occurred
             if (response.getError() != null) {
                 errorHandler(response);
@@ -286,16 +322,21 @@ public class BackGridPane extends GridPane {
             }
 
             var result = response.getText();
+            var segmentIndex = response.getSegmentIndex();
+            var formattedResults = IOUtils.resultFormatter(segmentIndex);
             var resultList = new String[]{
                     result,
-                    IOUtils.secondResultFormatter(result),
-                    IOUtils.thirdResultFormatter(result),
+                    formattedResults[0],
+                    formattedResults[1],
             };
 
-            // put default result into the system clipboard
-            UIUtils.putStringIntoClipboard(result);
-            // set UI.CopiedButton to the corresponded location
-            FRONT_GRID_PANE.setCopiedButtonRowIndex();
+            // a suggested result is only shown, the clipboard is left to the actual result
+            if (!suggested) {
+                // put default result into the system clipboard
+                UIUtils.putStringIntoClipboard(result);
+                // set UI.CopiedButton to the corresponded location
+                FRONT_GRID_PANE.setCopiedButtonRowIndex();
+            }
 
             List<CopyResultButton> buttonList = new LinkedList<>();
 
@@ -313,22 +354,7 @@ public class BackGridPane extends GridPane {
 
             FRONT_GRID_PANE.setCopyResultButtonColumnIndex(buttonList);
 
-            if (IOUtils.isTextAllWrapped(result)) {
-
-                var renderResult = JLaTeXMathRenderingHelper.render(result);
-
-                if (renderResult != null) {
-                    // set rendered equation to renderedImageView
-                    RENDERED_IMAGE_VIEW.setImage(renderResult);
-                } else {
-                    RENDERED_IMAGE_VIEW.setImage(UIUtils.RENDER_ERROR_IMAGE);
-                }
-
-            } else {
-
-                RENDERED_IMAGE_VIEW.setImage(UIUtils.RENDER_ERROR_IMAGE);
-
-            }
+            renderEquation(segmentIndex);
 
             // set results to corresponded TextFields.
             resultTextFiledList.get(0).setFormattedText(resultList[0]);
@@ -363,6 +389,84 @@ public class BackGridPane extends GridPane {
 
     }
 
+    /**
+     * Render the equation off the JavaFX application thread, a placeholder is displayed meanwhile.
+     * Results mixing text and math are rendered segment by segment.
+     *
+     * @param segmentIndex index of the recognised result.
+     */
+    private void renderEquation(LaTeXSegmentIndex segmentIndex) {
+
+        cancelRendering();
+
+        renderedSegmentIndex = segmentIndex;
+        renderedBorderPane.setCenter(RENDERING_PROGRESS_INDICATOR);
+
+        var scale = outputScale;
+        var future = JLaTeXMathRenderingHelper.renderAsync(segmentIndex, PREFERRED_WIDTH, PREFERRED_HEIGHT, scale);
+        renderingFuture = future;
+
+        // only the finished image is handed over to the JavaFX application thread
+        future.whenCompleteAsync((image, throwable) -> {
+
+            // superseded by a newer result
+            if (future != renderingFuture) {
+                return;
+            }
+
+            renderingFuture = null;
+
+            // set rendered equation to renderedImageView, rendered to fill the view and displayed at its size in points,
+            // within the view as the border is not scaled with the font
+            if (image != null) {
+                RENDERED_IMAGE_VIEW.setFitWidth(Math.min(PREFERRED_WIDTH, image.getWidth() / scale));
+                RENDERED_IMAGE_VIEW.setFitHeight(Math.min(PREFERRED_HEIGHT, image.getHeight() / scale));
+                RENDERED_IMAGE_VIEW.setImage(image);
+            } else {
+                RENDERED_IMAGE_VIEW.setFitWidth(PREFERRED_WIDTH);
+                RENDERED_IMAGE_VIEW.setFitHeight(PREFERRED_HEIGHT);
+                RENDERED_IMAGE_VIEW.setImage(UIUtils.RENDER_ERROR_IMAGE);
+            }
+            renderedBorderPane.setCenter(RENDERED_IMAGE_VIEW);
+
+        }, Platform::runLater);
+
+    }
+
+    /**
+     * Render equations at the output scale of the window, the displayed equation is rendered again when it changes.
+     *
+     * @param window window displaying this pane.
+     */
+    public void setOutputScaleSource(Window window) {
+
+        outputScale = window.getOutputScaleX();
+
+        window.outputScaleXProperty().addListener((observable, oldValue, newValue) -> {
+            outputScale = newValue.doubleValue();
+            if (renderedSegmentIndex != null) {
+                renderEquation(renderedSegmentIndex);
+            }
+        });
+
+    }
+
+    /**
+     * Cancel the pending rendering, if any, forget the rendered result and remove the placeholder.
+     */
+    private void cancelRendering() {
+
+        if (renderingFuture != null) {
+            renderingFuture.cancel(false);
+            renderingFuture = null;
+        }
+
+        renderedSegmentIndex = null;
+
+        renderedBorderPane.setCenter(RENDERED_IMAGE_VIEW);
+
+    }
+
     /**
      * Display clipboard image inside an ImageView.
      */
@@ -370,8 +474,70 @@ public class BackGridPane extends GridPane {
         // an Image has been registered on the clipboard
         if (clipboard.hasImage()) {
             // update the ImageView
-            CLIPBOARD_IMAGE_VIEW.setImage(clipboard.getImage());
+            var image = clipboard.getImage();
+            CLIPBOARD_IMAGE_VIEW.setImage(image);
+            updateCroppedViewport();
+        }
+    }
+
+    /**
+     * Show the region of the clipboard image to be uploaded, the whole image until it is cropped or if it is not.
+     * Called again when the "Auto-crop Margins" option is toggled.
+     */
+    static void updateCroppedViewport() {
+
+        var image = CLIPBOARD_IMAGE_VIEW.getImage();
+        CLIPBOARD_IMAGE_VIEW.setViewport(null);
+
+        if (image == null || !PreferenceHelper.getCroppingEnableOption()) {
+            return;
+        }
+
+        getCroppingFuture(image).thenAccept(cropped -> Platform.runLater(() -> {
+            // skipped if the image has been replaced or the option disabled in the meantime
+            if (cropped == null || cropped.getBounds() == null || CLIPBOARD_IMAGE_VIEW.getImage() != image ||
+                    !PreferenceHelper.getCroppingEnableOption()) {
+                return;
+            }
+            var bounds = cropped.getBounds();
+            CLIPBOARD_IMAGE_VIEW.setViewport(new Rectangle2D(bounds.x, bounds.y, bounds.width, bounds.height));
+        }));
+
+    }
+
+    /**
+     * @param image clipboard image.
+     * @return crop of the image, started in the background unless it is the last image cropped.
+     */
+    private static CompletableFuture<ImageCropper.CroppedImage> getCroppingFuture(Image image) {
+
+        if (image != croppingImage) {
+            croppingImage = image;
+            croppingFuture = CompletableFuture.supplyAsync(() -> ImageCropper.crop(image));
         }
+
+        return croppingFuture;
+
+    }
+
+    /**
+     * Clear the results of the last request.
+     */
+    private void clearResults() {
+
+        for (PressCopyTextField pressCopyTextField : resultTextFiledList) {
+            pressCopyTextField.setFormattedText("");
+            pressCopyTextField.setDisable(false);
+        }
+
+        cancelRendering();
+        RENDERED_IMAGE_VIEW.setImage(null);
+
+        // clear last location
+        COPIED_BUTTON.setVisible(false);
+        COPY_TSV_BUTTON.setVisible(false);
+        COPY_MATH_ML_BUTTON.setVisible(false);
+
     }
 
     /**
@@ -389,33 +555,62 @@ public class BackGridPane extends GridPane {
 
         if (CLIPBOARD_IMAGE_VIEW.getImage() != null) {
 
-            for (PressCopyTextField pressCopyTextField : resultTextFiledList) {
-                pressCopyTextField.setFormattedText("");
-                pressCopyTextField.setDisable(false);
-            }
-
-            RENDERED_IMAGE_VIEW.setImage(null);
-
-            // clear last location
-            COPIED_BUTTON.setVisible(false);
-            COPY_TSV_BUTTON.setVisible(false);
-            COPY_MATH_ML_BUTTON.setVisible(false);
+            clearResults();
 
             // show waiting label
             WAITING_TEXT_LABEL.setVisible(true);
 
+            var image = CLIPBOARD_IMAGE_VIEW.getImage();
+            var perceptualHash = PerceptualHash.dHash(image);
+
+            // show the result of a near-duplicate image while the request is sent, it is replaced by the actual result
+            var similarResponse = PreferenceHelper.getSimilarResultEnableOption() ?
+                    SimilarResultIndex.get(perceptualHash, PreferenceHelper.getSimilarityThreshold() / 100.0) : null;
+            if (similarResponse != null) {
+                responseHandler(similarResponse, true);
+            }
+            WAITING_TEXT_LABEL.setText(similarResponse != null ? "Similar Result..." : "Waiting...");
+
+            // a Recognition per request, the instance holds the image while an earlier request may still be pending
+            var recognition = new Recognition();
+            // upload mode, PNG compression, quantisation and downscaling selected in the preferences panel
+            recognition.setUploadMode(PreferenceHelper.getUploadMode());
+            recognition.setCompression(PreferenceHelper.getPNGCompression());
+            recognition.setQuantisation(PreferenceHelper.getPNGQuantisationEnableOption());
+            recognition.setDownscaling(PreferenceHelper.getDownscalingEnableOption());
+
+            // the crop shown in the preview is the one uploaded
+            var imageCroppingFuture = PreferenceHelper.getCroppingEnableOption() ? getCroppingFuture(image) : null;
 
             Task<Response> task = new Task<>() {
                 @Override
                 protected Response call() {
-                    return IOUtils.concurrentCall(RECOGNITION, CLIPBOARD_IMAGE_VIEW.getImage());
+                    if (imageCroppingFuture == null) {
+                        return IOUtils.concurrentCall(recognition, PixelSource.of(image));
+                    }
+                    var cropped = imageCroppingFuture.join();
+                    return IOUtils.concurrentCall(recognition, cropped == null ? null : cropped.getPixelSource());
                 }
             };
             task.setOnSucceeded(event -> {
-                responseHandler(task.getValue());
+                var response = task.getValue();
+                // a failed request does not leave the suggested result behind
+                if (similarResponse != null && (response == null || response.getError() != null)) {
+                    clearResults();
+                }
+                SimilarResultIndex.put(perceptualHash, response);
+                responseHandler(response);
                 // hide waiting label
                 WAITING_TEXT_LABEL.setVisible(false);
             });
+            // cropping or downscaling failed on the worker thread
+            task.setOnFailed(event -> {
+                if (similarResponse != null) {
+                    clearResults();
+                }
+                WAITING_TEXT_LABEL.setVisible(false);
+                UIUtils.displayError(IOUtils.UNEXPECTED_ERROR);
+            });
             new Thread(task).start();
 
         } else {
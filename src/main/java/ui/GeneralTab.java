@@ -1,16 +1,20 @@
 package ui;
 
+import io.PNGCompression;
 import io.PreferenceHelper;
 import javafx.geometry.Insets;
 import javafx.scene.control.CheckBox;
+import javafx.scene.control.ChoiceBox;
 import javafx.scene.control.Label;
+import javafx.scene.control.Spinner;
 import javafx.scene.control.Tab;
 import javafx.scene.layout.GridPane;
 import javafx.scene.paint.Color;
 
 /**
  * UI.FormattingTab.java
- * Used to display usage statistics and enable independent submit button.
+ * Used to display usage statistics, enable independent submit button, multipart image upload, PNG compression,
+ * similar results and startup warm-up.
  */
 public final class GeneralTab extends Tab {
 
@@ -29,7 +33,7 @@ public final class GeneralTab extends Tab {
         // load initial submit button enable option
         var submitButtonEnableOption = PreferenceHelper.getSubmitButtonEnableOption();
 
-        // 2 * 2 layout
+        // 10 * 2 layout
         var gridPane = new GridPane();
         gridPane.setHgap(2);
         gridPane.setVgap(2);
@@ -58,6 +62,98 @@ public final class GeneralTab extends Tab {
         GridPane.setMargin(submitButtonEnableOptionCheckBox, new Insets(MINIMUM_MARGIN));
         gridPane.add(submitButtonEnableOptionCheckBox, 0, 1);
 
+        // send the image as a raw file instead of a Base64 data URI, takes effect on the next request
+        var multipartUploadEnableOptionCheckBox = new CheckBox("Multipart Image Upload");
+        multipartUploadEnableOptionCheckBox.setSelected(PreferenceHelper.getMultipartUploadEnableOption());
+        multipartUploadEnableOptionCheckBox.selectedProperty().addListener((observable, oldValue, newValue) ->
+                PreferenceHelper.setMultipartUploadEnableOption(newValue));
+
+        GridPane.setMargin(multipartUploadEnableOptionCheckBox, new Insets(MINIMUM_MARGIN));
+        gridPane.add(multipartUploadEnableOptionCheckBox, 0, 2);
+
+        // show the result of a near-duplicate image with at least the given similarity in percent until the request returns
+        var similarResultEnableOption = PreferenceHelper.getSimilarResultEnableOption();
+        var similarResultEnableOptionCheckBox = new CheckBox("Similar Result Lookup");
+        similarResultEnableOptionCheckBox.setSelected(similarResultEnableOption);
+
+        var similarityThresholdSpinner = new Spinner<Integer>(80, 100, PreferenceHelper.getSimilarityThreshold());
+        similarityThresholdSpinner.setPrefWidth(80);
+        similarityThresholdSpinner.setDisable(!similarResultEnableOption);
+        similarityThresholdSpinner.valueProperty().addListener((observable, oldValue, newValue) ->
+                PreferenceHelper.setSimilarityThreshold(newValue));
+
+        similarResultEnableOptionCheckBox.selectedProperty().addListener((observable, oldValue, newValue) -> {
+            PreferenceHelper.setSimilarResultEnableOption(newValue);
+            similarityThresholdSpinner.setDisable(!newValue);
+        });
+
+        GridPane.setMargin(similarResultEnableOptionCheckBox, new Insets(MINIMUM_MARGIN));
+        gridPane.add(similarResultEnableOptionCheckBox, 0, 3);
+
+        GridPane.setMargin(similarityThresholdSpinner, new Insets(MINIMUM_MARGIN));
+        gridPane.add(similarityThresholdSpinner, 1, 3);
+
+        // load renderer, decoder and API connection in the background at startup, takes effect on the next launch
+        var warmUpEnableOptionCheckBox = new CheckBox("Startup Warm-up");
+        warmUpEnableOptionCheckBox.setSelected(PreferenceHelper.getWarmUpEnableOption());
+        warmUpEnableOptionCheckBox.selectedProperty().addListener((observable, oldValue, newValue) ->
+                PreferenceHelper.setWarmUpEnableOption(newValue));
+
+        GridPane.setMargin(warmUpEnableOptionCheckBox, new Insets(MINIMUM_MARGIN));
+        gridPane.add(warmUpEnableOptionCheckBox, 0, 4);
+
+        // faster encoding or smaller upload of the image, takes effect on the next request
+        var compressionLabel = new Label("PNG Compression");
+        GridPane.setMargin(compressionLabel, new Insets(MINIMUM_MARGIN));
+        gridPane.add(compressionLabel, 0, 5);
+
+        var compressionChoiceBox = new ChoiceBox<PNGCompression>();
+        compressionChoiceBox.getItems().addAll(PNGCompression.values());
+        compressionChoiceBox.setValue(PreferenceHelper.getPNGCompression());
+        compressionChoiceBox.valueProperty().addListener((observable, oldValue, newValue) ->
+                PreferenceHelper.setPNGCompression(newValue));
+
+        GridPane.setMargin(compressionChoiceBox, new Insets(MINIMUM_MARGIN));
+        gridPane.add(compressionChoiceBox, 1, 5);
+
+        // round near-grey images to 16 grey levels before upload, takes effect on the next request
+        var quantisationEnableOptionCheckBox = new CheckBox("Grey Quantisation");
+        quantisationEnableOptionCheckBox.setSelected(PreferenceHelper.getPNGQuantisationEnableOption());
+        quantisationEnableOptionCheckBox.selectedProperty().addListener((observable, oldValue, newValue) ->
+                PreferenceHelper.setPNGQuantisationEnableOption(newValue));
+
+        GridPane.setMargin(quantisationEnableOptionCheckBox, new Insets(MINIMUM_MARGIN));
+        gridPane.add(quantisationEnableOptionCheckBox, 0, 6);
+
+        // reduce large screenshots with large glyphs before upload, takes effect on the next request
+        var downscalingEnableOptionCheckBox = new CheckBox("Adaptive Downscaling");
+        downscalingEnableOptionCheckBox.setSelected(PreferenceHelper.getDownscalingEnableOption());
+        downscalingEnableOptionCheckBox.selectedProperty().addListener((observable, oldValue, newValue) ->
+                PreferenceHelper.setDownscalingEnableOption(newValue));
+
+        GridPane.setMargin(downscalingEnableOptionCheckBox, new Insets(MINIMUM_MARGIN));
+        gridPane.add(downscalingEnableOptionCheckBox, 0, 7);
+
+        // crop the background margins before upload, the clipboard preview follows
+        var croppingEnableOptionCheckBox = new CheckBox("Auto-crop Margins");
+        croppingEnableOptionCheckBox.setSelected(PreferenceHelper.getCroppingEnableOption());
+        croppingEnableOptionCheckBox.selectedProperty().addListener((observable, oldValue, newValue) -> {
+            PreferenceHelper.setCroppingEnableOption(newValue);
+            BackGridPane.updateCroppedViewport();
+        });
+
+        GridPane.setMargin(croppingEnableOptionCheckBox, new Insets(MINIMUM_MARGIN));
+        gridPane.add(croppingEnableOptionCheckBox, 0, 8);
+
+        // keep successful results in ~/.Image2LaTeX/cache across launches, takes effect on the next request
+        var diskCacheEnableOptionCheckBox = new CheckBox("Disk Result Cache");
+        diskCacheEnableOptionCheckBox.setSelected(PreferenceHelper.getDiskCacheEnableOption());
+        diskCacheEnableOptionCheckBox.selectedProperty().addListener((observable, oldValue, newValue) ->
+                PreferenceHelper.setDiskCacheEnableOption(newValue));
+
+        GridPane.setMargin(diskCacheEnableOptionCheckBox, new Insets(MINIMUM_MARGIN));
+        gridPane.add(diskCacheEnableOptionCheckBox, 0, 9);
+
         setContent(gridPane);
 
     }
@@ -24,31 +24,160 @@ package ui;
   Modified by Blaise Wang on 29 March 2020
  */
 
-import javafx.embed.swing.SwingFXUtils;
+import io.LaTeXSegmentIndex;
 import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
 import org.scilab.forge.jlatexmath.ParseException;
 import org.scilab.forge.jlatexmath.TeXConstants;
 import org.scilab.forge.jlatexmath.TeXFormula;
 
 import javax.swing.JLabel;
 import java.awt.Color;
+import java.awt.Graphics2D;
 import java.awt.Insets;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiConsumer;
 
 
 /**
  * UI.JLaTeXMathRenderingHelper.java
  * Utility class used to render LaTeX formulas.
+ * Renderings are kept in UI.RenderCache.
  */
 public class JLaTeXMathRenderingHelper {
 
+    private static final int DEFAULT_STYLE = TeXConstants.STYLE_DISPLAY;
+    private static final float DEFAULT_SIZE = 20;
+
+    // cache key style of the segmented renderings
+    private static final int SEGMENTED_STYLE = -1;
+
+    // pixel rasters larger than 4M pixels are not kept for reuse
+    private static final int MAX_POOLED_PIXEL_COUNT = 4 * 1024 * 1024;
+
+    // same layout as BufferedImage.TYPE_INT_ARGB and PixelFormat.getIntArgbInstance()
+    private static final DirectColorModel ARGB_COLOR_MODEL = new DirectColorModel(32, 0xff0000, 0xff00, 0xff, 0xff000000);
+    private static final int[] ARGB_MASKS = {0xff0000, 0xff00, 0xff, 0xff000000};
+
+    // pixel raster reused by the renderings of each thread
+    private static final ThreadLocal<int[]> PIXEL_BUFFER = new ThreadLocal<>();
+
+    // a single thread, superseded renderings still queued are skipped once cancelled,
+    // all formulas are parsed on it as the static tables of JLaTeXMath are not thread-safe
+    private static final ExecutorService RENDERING_EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+        var thread = new Thread(runnable, "equation-renderer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     /**
-     * Original source: https://github.com/jeffheaton/jlatexmath-example/blob/master/src/com/jeffheaton/latex/LatexExample.java
+     * Render on the rendering thread instead of the JavaFX application thread.
+     * Results wrapped by \( \) are rendered as a single formula, others segment by segment.
+     * Cancelling the future before the rendering has started skips it.
+     *
+     * @param segmentIndex index of the result to be rendered.
+     * @param maxWidth     maximal width of the displayed image, the font size is scaled to fit, infinite to keep it.
+     * @param maxHeight    maximal height of the displayed image, the font size is scaled to fit, infinite to keep it.
+     * @param scale        output scale of the window.
+     * @return future rendered image of scale times the displayed size, completed with null if nothing can be rendered.
+     */
+    public static CompletableFuture<Image> renderAsync(LaTeXSegmentIndex segmentIndex, double maxWidth, double maxHeight, double scale) {
+        return CompletableFuture.supplyAsync(() -> segmentIndex.isTextAllWrapped() ?
+                render(segmentIndex.getText(), DEFAULT_STYLE, DEFAULT_SIZE, maxWidth, maxHeight, scale) :
+                renderSegments(segmentIndex, DEFAULT_SIZE, maxWidth, maxHeight, scale), RENDERING_EXECUTOR);
+    }
+
+    /**
+     * Render on the rendering thread, queued with the renderings of the results.
      *
+     * @param latexSource text to be rendered.
+     * @return future rendered formula image.
+     */
+    public static CompletableFuture<Image> renderAsync(String latexSource) {
+        return CompletableFuture.supplyAsync(() -> render(latexSource), RENDERING_EXECUTOR);
+    }
+
+    /**
      * @param latexSource text to be rendered.
      * @return rendered formula image.
      */
     public static Image render(String latexSource) {
+        return render(latexSource, DEFAULT_STYLE, DEFAULT_SIZE, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, 1);
+    }
+
+    /**
+     * Return the cached rendering, or render and cache it.
+     *
+     * @param latexSource text to be rendered.
+     * @param style       TeXConstants style.
+     * @param size        font size in points.
+     * @param maxWidth    maximal width in points, the font size is scaled to fit, infinite to keep it.
+     * @param maxHeight   maximal height in points, the font size is scaled to fit, infinite to keep it.
+     * @param scale       output scale, the image has scale times the pixels of the formula.
+     * @return rendered formula image, null if the source cannot be parsed.
+     */
+    public static Image render(String latexSource, int style, float size, double maxWidth, double maxHeight, double scale) {
+
+        var key = RenderCache.getKey(latexSource, style, size, maxWidth, maxHeight, scale);
+
+        var image = RenderCache.get(key);
+        if (image != null) {
+            return image;
+        }
+
+        image = createImage(latexSource, style, (float) (size * scale), (int) Math.round(5 * scale), maxWidth * scale, maxHeight * scale);
+        RenderCache.put(key, image);
+
+        return image;
+
+    }
+
+    /**
+     * Return the cached rendering of a result mixing text and math, or render and cache it, see UI.SegmentRenderingHelper.
+     *
+     * @param segmentIndex index of the result to be rendered.
+     * @param size         font size in points.
+     * @param maxWidth     maximal width in points, the font size is scaled to fit, infinite to keep it.
+     * @param maxHeight    maximal height in points, the font size is scaled to fit, infinite to keep it.
+     * @param scale        output scale, the image has scale times the pixels of the result.
+     * @return rendered image, null if nothing can be rendered.
+     */
+    public static Image renderSegments(LaTeXSegmentIndex segmentIndex, float size, double maxWidth, double maxHeight, double scale) {
+
+        var key = RenderCache.getKey(segmentIndex.getText(), SEGMENTED_STYLE, size, maxWidth, maxHeight, scale);
+
+        var image = RenderCache.get(key);
+        if (image != null) {
+            return image;
+        }
+
+        image = SegmentRenderingHelper.createImage(segmentIndex, (float) (size * scale), (int) Math.round(5 * scale),
+                maxWidth * scale, maxHeight * scale);
+        RenderCache.put(key, image);
+
+        return image;
+
+    }
+
+    /**
+     * Original source: https://github.com/jeffheaton/jlatexmath-example/blob/master/src/com/jeffheaton/latex/LatexExample.java
+     *
+     * @param latexSource text to be rendered.
+     * @param style       TeXConstants style.
+     * @param size        font size in pixels.
+     * @param border      border in pixels.
+     * @param maxWidth    maximal width in pixels, the font size is scaled to fit, infinite to keep it.
+     * @param maxHeight   maximal height in pixels, the font size is scaled to fit, infinite to keep it.
+     * @return rendered formula image.
+     */
+    static Image createImage(String latexSource, int style, float size, int border, double maxWidth, double maxHeight) {
 
         TeXFormula teXFormula;
         try {
@@ -59,21 +188,83 @@ public class JLaTeXMathRenderingHelper {
         }
 
         // render the formula to an icon of the same size as the formula.
-        var icon = teXFormula.createTeXIcon(TeXConstants.STYLE_DISPLAY, 20);
+        var icon = teXFormula.createTeXIcon(style, size);
+
+        // lay out again at the font size filling the bounds, instead of scaling the raster afterwards
+        var fitScale = getFitScale(icon.getIconWidth() + 2 * border, icon.getIconHeight() + 2 * border, maxWidth, maxHeight);
+        if (fitScale != 1) {
+            icon = teXFormula.createTeXIcon(style, size * fitScale);
+        }
 
         // insert a border
-        icon.setInsets(new Insets(5, 5, 5, 5));
+        icon.setInsets(new Insets(border, border, border, border));
+
+        var fittedIcon = icon;
+
+        return paint(icon.getIconWidth(), icon.getIconHeight(), (jLabel, graphics2D) -> fittedIcon.paintIcon(jLabel, graphics2D, 0, 0));
+    }
+
+    /**
+     * @param width     width of the rendering in pixels.
+     * @param height    height of the rendering in pixels.
+     * @param maxWidth  maximal width in pixels.
+     * @param maxHeight maximal height in pixels.
+     * @return ratio of the font size filling the bounds with the same aspect ratio, greater than 1 to scale up,
+     * 1 if both bounds are infinite.
+     */
+    static float getFitScale(int width, int height, double maxWidth, double maxHeight) {
+        var fitScale = Math.min(maxWidth / width, maxHeight / height);
+        return Double.isInfinite(fitScale) ? 1 : (float) fitScale;
+    }
 
-        // create an image of the rendered formula
-        var bufferedImage = new BufferedImage(icon.getIconWidth(), icon.getIconHeight(), BufferedImage.TYPE_INT_ARGB);
+    /**
+     * Paint on a white background in the pooled pixel raster, then copy it into an image.
+     *
+     * @param width   image width in pixels.
+     * @param height  image height in pixels.
+     * @param painter paints the icons with the given component as foreground source.
+     * @return painted image.
+     */
+    static Image paint(int width, int height, BiConsumer<JLabel, Graphics2D> painter) {
+
+        // paint the rendered formula into the pooled pixel raster
+        var pixels = getPixelBuffer(width * height);
+        var bufferedImage = new BufferedImage(ARGB_COLOR_MODEL,
+                Raster.createPackedRaster(new DataBufferInt(pixels, width * height), width, height, width, ARGB_MASKS, null),
+                false, null);
         var graphics2D = bufferedImage.createGraphics();
         graphics2D.setColor(Color.white);
-        graphics2D.fillRect(0, 0, icon.getIconWidth(), icon.getIconHeight());
+        graphics2D.fillRect(0, 0, width, height);
         var jLabel = new JLabel();
         jLabel.setForeground(new Color(0, 0, 0));
-        icon.paintIcon(jLabel, graphics2D, 0, 0);
+        painter.accept(jLabel, graphics2D);
+        graphics2D.dispose();
+
+        // a single copy of the raster into the image
+        var writableImage = new WritableImage(width, height);
+        writableImage.getPixelWriter().setPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(), pixels, 0, width);
+
+        return writableImage;
+
+    }
+
+    /**
+     * @param pixelCount number of pixels needed.
+     * @return the pixel raster of the current thread, grown if needed.
+     */
+    private static int[] getPixelBuffer(int pixelCount) {
+
+        var pixels = PIXEL_BUFFER.get();
+
+        if (pixels == null || pixels.length < pixelCount) {
+            pixels = new int[pixelCount];
+            if (pixelCount <= MAX_POOLED_PIXEL_COUNT) {
+                PIXEL_BUFFER.set(pixels);
+            }
+        }
+
+        return pixels;
 
-        return SwingFXUtils.toFXImage(bufferedImage, null);
     }
 
 }
@@ -0,0 +1,118 @@
+package ui;
+
+import javafx.scene.image.Image;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * UI.RenderCache.java
+ * LRU cache of rendered equations keyed by LaTeX source, style, size, bounds and output scale.
+ * Eviction is weighted by pixel count, so a few large matrices cannot pin down the memory of many small formulas.
+ */
+public class RenderCache {
+
+    // 8M pixels, 32 MiB of ARGB
+    private static final long MAX_PIXEL_COUNT = 8 * 1024 * 1024;
+
+    private static final AtomicLong HIT_COUNT = new AtomicLong();
+    private static final AtomicLong MISS_COUNT = new AtomicLong();
+    private static final AtomicLong EVICTION_COUNT = new AtomicLong();
+
+    // access ordered, the eldest entry is the least recently used one
+    private static final Map<String, Image> CACHE = new LinkedHashMap<>(64, 0.75f, true);
+
+    private static long pixelCount;
+
+    /**
+     * @return cache key of a rendering.
+     */
+    static String getKey(String latexSource, int style, float size, double maxWidth, double maxHeight, double scale) {
+        return style + ":" + size + ":" + maxWidth + "x" + maxHeight + "@" + scale + ":" + latexSource;
+    }
+
+    /**
+     * @param key cache key, see getKey().
+     * @return cached rendering, null if none.
+     */
+    public static synchronized Image get(String key) {
+
+        var image = CACHE.get(key);
+
+        if (image != null) {
+            HIT_COUNT.incrementAndGet();
+        } else {
+            MISS_COUNT.incrementAndGet();
+        }
+
+        return image;
+
+    }
+
+    /**
+     * Add a rendering, evicting the least recently used ones beyond the pixel budget.
+     *
+     * @param key   cache key, see getKey().
+     * @param image rendered equation.
+     */
+    public static synchronized void put(String key, Image image) {
+
+        var weight = getWeight(image);
+
+        // larger than the whole budget
+        if (image == null || weight > MAX_PIXEL_COUNT) {
+            return;
+        }
+
+        var previous = CACHE.put(key, image);
+        pixelCount += weight - getWeight(previous);
+
+        Iterator<Image> iterator = CACHE.values().iterator();
+        while (pixelCount > MAX_PIXEL_COUNT && iterator.hasNext()) {
+            pixelCount -= getWeight(iterator.next());
+            iterator.remove();
+            EVICTION_COUNT.incrementAndGet();
+        }
+
+    }
+
+    /**
+     * @return pixel count of the image, 0 for null.
+     */
+    private static long getWeight(Image image) {
+        return image == null ? 0 : (long) image.getWidth() * (long) image.getHeight();
+    }
+
+    public static long getHitCount() {
+        return HIT_COUNT.get();
+    }
+
+    public static long getMissCount() {
+        return MISS_COUNT.get();
+    }
+
+    public static long getEvictionCount() {
+        return EVICTION_COUNT.get();
+    }
+
+    /**
+     * @return ratio of lookups answered from the cache, 0 before any lookup.
+     */
+    public static double getHitRate() {
+        var hitCount = getHitCount();
+        var lookupCount = hitCount + getMissCount();
+        return lookupCount == 0 ? 0 : (double) hitCount / lookupCount;
+    }
+
+    /**
+     * @return summary of the cache usage.
+     */
+    public static synchronized String getStatistics() {
+        return String.format("entries: %d, pixels: %d, hits: %d, misses: %d, hit rate: %.1f%%, evictions: %d",
+                CACHE.size(), pixelCount, getHitCount(), getMissCount(), getHitRate() * 100, getEvictionCount());
+    }
+
+}
@@ -0,0 +1,310 @@
+package ui;
+
+import io.LaTeXSegmentIndex;
+import javafx.scene.image.Image;
+import org.scilab.forge.jlatexmath.ParseException;
+import org.scilab.forge.jlatexmath.TeXConstants;
+import org.scilab.forge.jlatexmath.TeXFormula;
+import org.scilab.forge.jlatexmath.TeXIcon;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * UI.SegmentRenderingHelper.java
+ * Renders results mixing text and math, which cannot be parsed as a single formula.
+ * Prose is rendered word by word with \text{}, inline math in text style and display math centred on its own line.
+ * The pieces are parsed and laid out one by one on the calling thread, as JLaTeXMath fills its static tables lazily
+ * and is not thread-safe, then composed line by line on their baselines into one image.
+ */
+class SegmentRenderingHelper {
+
+    // line width in pixels at scale 1 before wrapping
+    private static final float MAX_LINE_WIDTH = 480;
+
+    // characters escaped with a backslash inside \text{}
+    private static final String ESCAPED_CHARACTERS = "#$%&_{}";
+
+    /**
+     * @param segmentIndex index of the result to be rendered.
+     * @param size         font size in pixels.
+     * @param border       border in pixels.
+     * @param maxWidth     maximal width in pixels, the font size is scaled to fit, infinite to keep it.
+     * @param maxHeight    maximal height in pixels, the font size is scaled to fit, infinite to keep it.
+     * @return rendered image, null if nothing can be rendered.
+     */
+    static Image createImage(LaTeXSegmentIndex segmentIndex, float size, int border, double maxWidth, double maxHeight) {
+
+        var pieces = getPieces(segmentIndex);
+        var layout = new Layout(pieces, size);
+
+        if (layout.lines.isEmpty()) {
+            return null;
+        }
+
+        // the wrapping width follows the font size, so the layout is the same at the fitting font size
+        var fitScale = JLaTeXMathRenderingHelper.getFitScale(layout.width + 2 * border, layout.height + 2 * border, maxWidth, maxHeight);
+        if (fitScale != 1) {
+            layout = new Layout(pieces, size * fitScale);
+        }
+
+        var finalLayout = layout;
+
+        return JLaTeXMathRenderingHelper.paint(layout.width + 2 * border, layout.height + 2 * border, (jLabel, graphics2D) -> {
+            var y = border;
+            for (Line line : finalLayout.lines) {
+                var x = border + (line.isCentred ? (finalLayout.width - line.width) / 2 : 0);
+                var baseline = y + line.ascent;
+                for (int i = 0; i < line.icons.size(); i++) {
+                    var icon = line.icons.get(i);
+                    icon.paintIcon(jLabel, graphics2D, x + line.offsets.get(i), baseline - (icon.getIconHeight() - icon.getIconDepth()));
+                }
+                y += line.ascent + line.descent + finalLayout.lineGap;
+            }
+        });
+
+    }
+
+    /**
+     * Split the segments into words, inline math, display math and line breaks.
+     */
+    private static List<Piece> getPieces(LaTeXSegmentIndex segmentIndex) {
+
+        var text = segmentIndex.getText();
+        var pieces = new ArrayList<Piece>();
+
+        for (LaTeXSegmentIndex.Segment segment : segmentIndex.getSegments()) {
+
+            var hasSpaceBefore = segment.getStart() > 0 && Character.isWhitespace(text.charAt(segment.getStart() - 1));
+
+            switch (segment.getType()) {
+                case INLINE_MATH -> pieces.add(new Piece(segment.getContent(), TeXConstants.STYLE_TEXT, hasSpaceBefore, false));
+                case DISPLAY_MATH -> pieces.add(new Piece(segment.getContent(), TeXConstants.STYLE_DISPLAY, false, true));
+                default -> addWords(pieces, segment.getContent());
+            }
+
+        }
+
+        return pieces;
+
+    }
+
+    /**
+     * Add the words of a text segment, line breaks are added as null sources.
+     */
+    private static void addWords(List<Piece> pieces, String content) {
+
+        var hasSpaceBefore = false;
+        var wordStart = 0;
+
+        for (int i = 0; i <= content.length(); i++) {
+
+            if (i < content.length() && !Character.isWhitespace(content.charAt(i))) {
+                continue;
+            }
+
+            if (i > wordStart) {
+                pieces.add(new Piece(content.substring(wordStart, i), -1, hasSpaceBefore, false));
+                hasSpaceBefore = false;
+            }
+
+            if (i < content.length()) {
+                if (content.charAt(i) == '\n') {
+                    pieces.add(new Piece(null, -1, false, false));
+                } else {
+                    hasSpaceBefore = true;
+                }
+            }
+
+            wordStart = i + 1;
+
+        }
+
+    }
+
+    /**
+     * @return icon of the piece, math that cannot be parsed is shown as text, null for line breaks or if nothing can be parsed.
+     */
+    private static TeXIcon createIcon(Piece piece, float size) {
+
+        if (piece.source == null) {
+            return null;
+        }
+
+        if (piece.style >= 0) {
+            try {
+                return new TeXFormula(piece.source).createTeXIcon(piece.style, size);
+            } catch (ParseException ignored) {
+                // fall back to the source as text
+            }
+        }
+
+        try {
+            return new TeXFormula("\\text{" + escape(piece.source.trim()) + "}").createTeXIcon(TeXConstants.STYLE_TEXT, size);
+        } catch (ParseException ignored) {
+            return null;
+        }
+
+    }
+
+    /**
+     * @return text with the characters special inside \text{} escaped.
+     */
+    private static String escape(String text) {
+
+        var builder = new StringBuilder(text.length() + 8);
+
+        for (int i = 0; i < text.length(); i++) {
+            var character = text.charAt(i);
+            if (character == '\\') {
+                builder.append("\\backslash ");
+            } else if (character == '^' || character == '~') {
+                builder.append("\\").append(character).append("{}");
+            } else {
+                if (ESCAPED_CHARACTERS.indexOf(character) >= 0) {
+                    builder.append('\\');
+                }
+                builder.append(character);
+            }
+        }
+
+        return builder.toString();
+
+    }
+
+    /**
+     * Place the icons on lines, wrapping words and inline math beyond the maximal width.
+     */
+    private static List<Line> getLines(List<Piece> pieces, List<TeXIcon> icons, float size, float maxWidth) {
+
+        var spaceWidth = Math.round(size * 0.3f);
+        var lines = new ArrayList<Line>();
+        var line = new Line(false);
+
+        for (int i = 0; i < pieces.size(); i++) {
+
+            var piece = pieces.get(i);
+            var icon = icons.get(i);
+
+            if (piece.source == null || piece.isDisplay) {
+                // line break, or display math on a line of its own
+                if (!line.icons.isEmpty()) {
+                    lines.add(line);
+                }
+                line = new Line(false);
+                if (piece.isDisplay && icon != null) {
+                    var displayLine = new Line(true);
+                    displayLine.add(icon, 0);
+                    lines.add(displayLine);
+                }
+                continue;
+            }
+
+            if (icon == null) {
+                continue;
+            }
+
+            var gap = piece.hasSpaceBefore && !line.icons.isEmpty() ? spaceWidth : 0;
+
+            if (!line.icons.isEmpty() && line.width + gap + icon.getIconWidth() > maxWidth) {
+                lines.add(line);
+                line = new Line(false);
+                gap = 0;
+            }
+
+            line.add(icon, gap);
+
+        }
+
+        if (!line.icons.isEmpty()) {
+            lines.add(line);
+        }
+
+        return lines;
+
+    }
+
+    /**
+     * Lines of the pieces at a font size.
+     */
+    private static final class Layout {
+
+        private final List<Line> lines;
+        private final int lineGap;
+        private final int width;
+        private final int height;
+
+        private Layout(List<Piece> pieces, float size) {
+
+            // parse and lay out each piece on this thread, see the class comment
+            var icons = new ArrayList<TeXIcon>(pieces.size());
+            for (Piece piece : pieces) {
+                icons.add(createIcon(piece, size));
+            }
+
+            lines = getLines(pieces, icons, size, MAX_LINE_WIDTH * size / 20);
+            lineGap = Math.round(size * 0.4f);
+
+            var contentWidth = 0;
+            var contentHeight = lineGap * Math.max(0, lines.size() - 1);
+            for (Line line : lines) {
+                contentWidth = Math.max(contentWidth, line.width);
+                contentHeight += line.ascent + line.descent;
+            }
+
+            width = contentWidth;
+            height = contentHeight;
+
+        }
+
+    }
+
+    /**
+     * A word, a math segment or a line break (null source).
+     */
+    private static final class Piece {
+
+        private final String source;
+        // TeXConstants style of math, -1 for text
+        private final int style;
+        private final boolean hasSpaceBefore;
+        private final boolean isDisplay;
+
+        private Piece(String source, int style, boolean hasSpaceBefore, boolean isDisplay) {
+            this.source = source;
+            this.style = style;
+            this.hasSpaceBefore = hasSpaceBefore;
+            this.isDisplay = isDisplay;
+        }
+
+    }
+
+    /**
+     * Icons of a line with their horizontal offsets, aligned on a common baseline.
+     */
+    private static final class Line {
+
+        private final boolean isCentred;
+        private final List<TeXIcon> icons = new ArrayList<>();
+        private final List<Integer> offsets = new ArrayList<>();
+
+        private int width;
+        private int ascent;
+        private int descent;
+
+        private Line(boolean isCentred) {
+            this.isCentred = isCentred;
+        }
+
+        private void add(TeXIcon icon, int gap) {
+            offsets.add(width + gap);
+            icons.add(icon);
+            width += gap + icon.getIconWidth();
+            ascent = Math.max(ascent, icon.getIconHeight() - icon.getIconDepth());
+            descent = Math.max(descent, icon.getIconDepth());
+        }
+
+    }
+
+}
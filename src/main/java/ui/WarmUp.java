@@ -0,0 +1,87 @@
+package ui;
+
+import io.IOUtils;
+import io.OCRRequestHelper;
+import io.ResponseTypeAdapter;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Callable;
+
+
+/**
+ * UI.WarmUp.java
+ * Optional startup stage loading what the first recognition would otherwise wait for:
+ * the JLaTeXMath fonts and symbol tables, the response decoding and the connection to the API host.
+ * Runs on a low priority daemon thread, the sample formula is rendered on the rendering thread of
+ * UI.JLaTeXMathRenderingHelper as JLaTeXMath is not thread-safe.
+ * The time of each step is printed if the "i2l.debug" system property is true.
+ */
+public class WarmUp {
+
+    private static final boolean DEBUG = Boolean.getBoolean("i2l.debug");
+
+    private static final String SAMPLE_FORMULA = "\\( x=\\frac{-b \\pm \\sqrt{b^{2}-4 a c}}{2 a} \\)";
+
+    private static final String SAMPLE_RESPONSE = "{\"text\": \"Let \\\\( x^{2}+y^{2}=1 \\\\) be given\", \"confidence\": 0.99, " +
+            "\"data\": [{\"type\": \"mathml\", \"value\": \"<math><msup><mi>x</mi><mn>2</mn></msup></math>\"}]}";
+
+    /**
+     * Start the warm-up in the background.
+     */
+    public static void start() {
+        var thread = new Thread(WarmUp::run, "warm-up");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    private static void run() {
+
+        var startTime = System.nanoTime();
+
+        // font loading and the first parse of JLaTeXMath, queued with the renderings of the results
+        time("rendering", () -> JLaTeXMathRenderingHelper.renderAsync(SAMPLE_FORMULA).get());
+
+        // response decoding and result formatting
+        time("decoding", () -> {
+            var response = ResponseTypeAdapter.decode(new ByteArrayInputStream(SAMPLE_RESPONSE.getBytes(StandardCharsets.UTF_8)));
+            return IOUtils.resultFormatter(response.getSegmentIndex());
+        });
+
+        // host resolution, TLS handshake and the shared HttpClient
+        time("connection", OCRRequestHelper::preconnect);
+
+        log("warm-up: %d ms%n", (System.nanoTime() - startTime) / 1_000_000);
+
+    }
+
+    /**
+     * Run and log the time of a step, a failed step is logged and skipped.
+     *
+     * @param name name of the step.
+     * @param step step to be run.
+     */
+    private static void time(String name, Callable<Object> step) {
+
+        var startTime = System.nanoTime();
+
+        try {
+            step.call();
+            log("warm-up %s: %d ms%n", name, (System.nanoTime() - startTime) / 1_000_000);
+        } catch (Exception e) {
+            log("warm-up %s failed after %d ms: %s%n", name, (System.nanoTime() - startTime) / 1_000_000, e);
+        }
+
+    }
+
+    /**
+     * Print a formatted message in debug runs.
+     */
+    private static void log(String format, Object... args) {
+        if (DEBUG) {
+            System.out.printf(format, args);
+        }
+    }
+
+}